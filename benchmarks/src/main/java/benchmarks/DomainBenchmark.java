@@ -0,0 +1,48 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import parsers.request.CompRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DomainBenchmark {
+
+  @Param({"GRID", "LIST"})
+  public CompRequest.ValuesKind valuesKind;
+
+  @Param({"1", "2", "3"})
+  public int numOfVars;
+
+  @Param({"100", "10000", "1000000"})
+  public int domainSize;
+
+  private List<CompRequest.VariableValue> variableValues;
+  private Function<List<Set<Double>>, Set<?>> tupleBuilder;
+
+  @Setup
+  public void setup() throws Throwable {
+    int points = Workloads.pointsPerVariable(valuesKind, numOfVars, domainSize);
+    variableValues = new ArrayList<>();
+    for (int i = 0; i < numOfVars; i++) {
+      variableValues.add(new CompRequest.VariableValue(Workloads.variableName(i), 1.0, 1.0, (double) points));
+    }
+    tupleBuilder = ServerInternals.tupleBuilder(valuesKind);
+  }
+
+  // value sets and tuples, as built for every computation request
+  @Benchmark
+  public Set<?> buildDomain() {
+    return tupleBuilder.apply(variableValues.stream().map(ServerInternals::valueSet).toList());
+  }
+
+}
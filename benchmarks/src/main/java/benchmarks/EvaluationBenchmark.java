@@ -0,0 +1,50 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import parsers.expression.Expression;
+import parsers.expression.ExpressionParser;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EvaluationBenchmark {
+
+  @Param({"1", "4", "8"})
+  public int depth;
+
+  @Param({"1", "3"})
+  public int numOfVars;
+
+  private Expression expression;
+  private Function<Map<String, Double>, Double> function;
+  private final Map<String, Double> input = new HashMap<>();
+
+  @Setup
+  public void setup() {
+    expression = new Expression(new ExpressionParser(Workloads.expression(depth, numOfVars)).parse());
+    function = expression.toRealVariableVectorFunction();
+    for (int i = 0; i < numOfVars; i++) {
+      input.put(Workloads.variableName(i), 1.5 + i);
+    }
+  }
+
+  @Benchmark
+  public Double evaluate() {
+    return function.apply(input);
+  }
+
+  // what the server pays when it builds the function of an expression once per evaluation
+  @Benchmark
+  public Double compileAndEvaluate() {
+    return expression.toRealVariableVectorFunction().apply(input);
+  }
+
+}
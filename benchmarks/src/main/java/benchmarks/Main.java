@@ -0,0 +1,58 @@
+package benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+// Same as org.openjdk.jmh.Main, but unless told otherwise saves the results as JSON in jmh-results/<git commit>.json
+public class Main {
+
+  public static void main(String... args) throws Exception {
+
+    CommandLineOptions cmdOptions = new CommandLineOptions(args);
+    if (cmdOptions.shouldHelp()) {
+      cmdOptions.showHelp();
+      return;
+    }
+    if (cmdOptions.shouldList() || cmdOptions.shouldListWithParams() || cmdOptions.shouldListProfilers() || cmdOptions.shouldListResultFormats()) {
+      org.openjdk.jmh.Main.main(args);
+      return;
+    }
+
+    ChainedOptionsBuilder options = new OptionsBuilder().parent(cmdOptions);
+    if (!cmdOptions.getResult().hasValue()) {
+      Path results = Path.of("jmh-results", revision() + ".json");
+      Files.createDirectories(results.getParent());
+      options.resultFormat(ResultFormatType.JSON).result(results.toString());
+    }
+
+    new Runner(options.build()).run();
+
+  }
+
+  // the current commit, or the current time outside of a git checkout
+  private static String revision() {
+    try {
+      Process git = new ProcessBuilder("git", "rev-parse", "--short", "HEAD").redirectErrorStream(true).start();
+      String commit = new String(git.getInputStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+      if (git.waitFor() == 0 && !commit.isEmpty()) {
+        return commit;
+      }
+    } catch (IOException e) {
+      // not a git checkout, or no git at all
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
+  }
+
+}
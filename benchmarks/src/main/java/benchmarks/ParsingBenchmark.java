@@ -0,0 +1,47 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import parsers.expression.ExpressionParser;
+import parsers.expression.Node;
+import parsers.request.CompRequest;
+import parsers.request.MalformedRequestException;
+import parsers.request.Request;
+import parsers.request.RequestParser;
+import parsers.request.TokenizedRequest;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParsingBenchmark {
+
+  @Param({"1", "4", "8"})
+  public int depth;
+
+  @Param({"1", "3"})
+  public int numOfVars;
+
+  private Request request;
+  private String expression;
+
+  @Setup
+  public void setup() {
+    request = new Request(Workloads.computationRequest(CompRequest.ComputationKind.MAX, CompRequest.ValuesKind.GRID, numOfVars, 1000, depth));
+    expression = Workloads.expression(depth, numOfVars);
+  }
+
+  @Benchmark
+  public TokenizedRequest requestParser() throws MalformedRequestException {
+    return new RequestParser(request).parse();
+  }
+
+  @Benchmark
+  public Node expressionParser() {
+    return new ExpressionParser(expression).parse();
+  }
+
+}
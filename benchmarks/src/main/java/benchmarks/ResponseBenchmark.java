@@ -0,0 +1,52 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import parsers.request.CompRequest;
+import parsers.request.Request;
+import parsers.request.RequestParser;
+import parsers.request.TokenizedRequest;
+
+import java.util.concurrent.TimeUnit;
+
+// end to end handling of an already parsed request, as done by ClientHandler for every request it receives
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResponseBenchmark {
+
+  @Param({"MAX", "MIN", "AVG", "COUNT", "MULTI", "APPROX_AVG", "APPROX_MIN", "APPROX_MAX"})
+  public CompRequest.ComputationKind kind;
+
+  @Param({"GRID", "LIST"})
+  public CompRequest.ValuesKind valuesKind;
+
+  @Param({"1", "3"})
+  public int numOfVars;
+
+  @Param({"1000", "100000"})
+  public int domainSize;
+
+  @Param({"2", "6"})
+  public int depth;
+
+  private TokenizedRequest request;
+
+  @Setup
+  public void setup() throws Exception {
+    request = new RequestParser(new Request(Workloads.sweptComputationRequest(kind, valuesKind, numOfVars, domainSize, depth))).parse();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    ServerInternals.shutdownExecutors();
+  }
+
+  @Benchmark
+  public String generateResponse() throws Throwable {
+    return ServerInternals.generateResponse(request);
+  }
+
+}
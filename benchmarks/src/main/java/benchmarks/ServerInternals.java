@@ -0,0 +1,74 @@
+package benchmarks;
+
+import parsers.request.CompRequest;
+import parsers.request.TokenizedRequest;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+
+// The server classes live in the unnamed package, which cannot be imported from a named one, so the benchmarks
+// reach ClientHandler.RequestHandler through handles looked up once, outside of the measured code
+final class ServerInternals {
+
+  private static final MethodHandle GENERATE_RESPONSE;
+  private static final MethodHandle GET_TUPLE_BUILDER;
+  private static final Function<CompRequest.VariableValue, Set<Double>> VALUE_SET;
+  private static final List<ExecutorService> EXECUTORS;
+
+  static {
+    try {
+      Class<?> requestHandler = Class.forName("ClientHandler$RequestHandler");
+
+      Method generateResponse = requestHandler.getDeclaredMethod("generateResponse", TokenizedRequest.class);
+      generateResponse.setAccessible(true);
+      GENERATE_RESPONSE = MethodHandles.lookup().unreflect(generateResponse);
+
+      Method getTupleBuilder = requestHandler.getDeclaredMethod("getTupleBuilder", CompRequest.ValuesKind.class);
+      getTupleBuilder.setAccessible(true);
+      GET_TUPLE_BUILDER = MethodHandles.lookup().unreflect(getTupleBuilder);
+
+      Field valueSet = requestHandler.getDeclaredField("a");
+      valueSet.setAccessible(true);
+      @SuppressWarnings("unchecked")
+      Function<CompRequest.VariableValue, Set<Double>> a = (Function<CompRequest.VariableValue, Set<Double>>) valueSet.get(null);
+      VALUE_SET = a;
+
+      Class<?> server = Class.forName("Server");
+      Field compReqsExecutor = server.getDeclaredField("COMP_REQS_EXECUTOR");
+      Field statReqsExecutor = server.getDeclaredField("STAT_REQS_EXECUTOR");
+      compReqsExecutor.setAccessible(true);
+      statReqsExecutor.setAccessible(true);
+      EXECUTORS = List.of((ExecutorService) compReqsExecutor.get(null), (ExecutorService) statReqsExecutor.get(null));
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private ServerInternals() {
+  }
+
+  static String generateResponse(TokenizedRequest request) throws Throwable {
+    return (String) GENERATE_RESPONSE.invokeExact(request);
+  }
+
+  @SuppressWarnings("unchecked")
+  static Function<List<Set<Double>>, Set<?>> tupleBuilder(CompRequest.ValuesKind valuesKind) throws Throwable {
+    return (Function<List<Set<Double>>, Set<?>>) (Function<?, ?>) GET_TUPLE_BUILDER.invokeExact(valuesKind);
+  }
+
+  // the threads of the server executors are not daemons, a fork would otherwise wait for them at the end of its trial
+  static void shutdownExecutors() {
+    EXECUTORS.forEach(ExecutorService::shutdownNow);
+  }
+
+  static Set<Double> valueSet(CompRequest.VariableValue variableValue) {
+    return VALUE_SET.apply(variableValue);
+  }
+
+}
@@ -0,0 +1,75 @@
+package benchmarks;
+
+import parsers.request.CompRequest;
+
+import java.util.StringJoiner;
+
+// Synthetic requests shaped by the benchmark parameters
+final class Workloads {
+
+  private static final char[] OPERATORS = {'+', '*', '-'};
+
+  private Workloads() {
+  }
+
+  // the text protocol only accepts two chars variable names
+  static String variableName(int i) {
+    return "x" + i;
+  }
+
+  // a full binary tree with 2^depth leaves, alternating variables and constants
+  static String expression(int depth, int numOfVars) {
+    return expression(depth, numOfVars, new int[]{0});
+  }
+
+  private static String expression(int depth, int numOfVars, int[] leaf) {
+    if (depth == 0) {
+      int i = leaf[0]++;
+      return i % 2 == 0 ? variableName(i / 2 % numOfVars) : Integer.toString(i % 7 + 1);
+    }
+    return "(" + expression(depth - 1, numOfVars, leaf) + OPERATORS[depth % OPERATORS.length] + expression(depth - 1, numOfVars, leaf) + ")";
+  }
+
+  // the expression divided by a sum that first shrinks then grows over the range of every variable, so that the AVG
+  // is not a polynomial and no variable of a MIN or MAX can be collapsed: the whole domain is swept
+  static String sweptExpression(int depth, int numOfVars, int pointsPerVariable) {
+    String divisor = "1";
+    for (int i = 0; i < numOfVars; i++) {
+      divisor = "(" + divisor + "+((" + variableName(i) + "-" + (1 + pointsPerVariable) / 2.0 + ")^2))";
+    }
+    return "(" + expression(depth, numOfVars) + "/" + divisor + ")";
+  }
+
+  // for a GRID the domain size is spread over the variables, for a LIST every variable takes all of it
+  static int pointsPerVariable(CompRequest.ValuesKind valuesKind, int numOfVars, int domainSize) {
+    return switch (valuesKind) {
+      case GRID -> Math.max(1, (int) Math.round(Math.pow(domainSize, 1.0 / numOfVars)));
+      case LIST -> domainSize;
+    };
+  }
+
+  static String variableValues(int numOfVars, int pointsPerVariable) {
+    StringJoiner variableValues = new StringJoiner(",");
+    for (int i = 0; i < numOfVars; i++) {
+      variableValues.add(variableName(i) + ":1:1:" + pointsPerVariable);
+    }
+    return variableValues.toString();
+  }
+
+  static String computationRequest(CompRequest.ComputationKind kind, CompRequest.ValuesKind valuesKind, int numOfVars, int domainSize, int depth) {
+    int points = pointsPerVariable(valuesKind, numOfVars, domainSize);
+    return computationRequest(kind, valuesKind, variableValues(numOfVars, points), expression(depth, numOfVars));
+  }
+
+  // same as computationRequest, with the sweptExpression
+  static String sweptComputationRequest(CompRequest.ComputationKind kind, CompRequest.ValuesKind valuesKind, int numOfVars, int domainSize, int depth) {
+    int points = pointsPerVariable(valuesKind, numOfVars, domainSize);
+    return computationRequest(kind, valuesKind, variableValues(numOfVars, points), sweptExpression(depth, numOfVars, points));
+  }
+
+  private static String computationRequest(CompRequest.ComputationKind kind, CompRequest.ValuesKind valuesKind, String variableValues, String expression) {
+    String computationKind = kind == CompRequest.ComputationKind.MULTI ? "MULTI[MIN,MAX,AVG,COUNT,VAR]" : kind.name();
+    return computationKind + "_" + valuesKind.name() + ";" + variableValues + ";" + expression;
+  }
+
+}
@@ -1,112 +1,530 @@
 import parsers.expression.Expression;
+import parsers.expression.Monotonicity;
+import parsers.expression.Node;
+import parsers.expression.Polynomial;
 import parsers.expression.Variable;
 import parsers.request.*;
 
 import java.io.*;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 public class ClientHandler extends Thread {
 
+  private static final AtomicInteger NEXT_CONNECTION_ID = new AtomicInteger();
+  private static final int MAX_HELD_BACK_BYTES = 1 << 16;
+
+  private final int connectionId = NEXT_CONNECTION_ID.incrementAndGet();
   private final Socket socket;
-  private final BufferedReader in;
-  private final PrintWriter out;
+  private final BufferedInputStream input;
+  private final OutputStream output;
+  private final ResponseWriter out;
+  private final ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream();
+  private final HandleRegistry handles = new HandleRegistry(Server.maxPrepared());
+  // the System.nanoTime() at which the write in progress started, 0 when there is none, see closeIfWriteStalled
+  private volatile long writeStartTime = 0;
+  // false for the connections of the warm-up, see WarmUp
+  private final boolean logged;
 
   public ClientHandler(final Socket socket) throws IOException {
+    this(socket, true);
+  }
+
+  ClientHandler(final Socket socket, boolean logged) throws IOException {
     this.socket = socket;
-    in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-    out = new PrintWriter(socket.getOutputStream(), true);
+    this.logged = logged;
+    input = new BufferedInputStream(socket.getInputStream());
+    output = new WatchedOutputStream(socket.getOutputStream());
+    out = new ResponseWriter(output);
   }
 
   public void run() {
 
     logInfo(socket.getInetAddress() + " has connected");
 
+    // the first byte of the connection selects the protocol, text clients always start with a printable char
+    boolean binary = false;
+    boolean connected = true;
+    try {
+      socket.setSoTimeout(Server.idleTimeoutMillis());
+      input.mark(1);
+      binary = input.read() == Byte.toUnsignedInt(BinaryCodec.HANDSHAKE);
+      if (!binary) {
+        input.reset();
+      }
+    } catch (SocketTimeoutException e) {
+      connected = false;
+      logError("Idle timeout for " + socket.getInetAddress());
+      Server.idleTimeouts().incrementAndGet();
+      transmitErrorResponse("Idle timeout");
+    } catch (IOException e) {
+      connected = false;
+      logError(e.getMessage());
+    }
+
+    // the connection is given back to the server even when serving it fails unexpectedly
+    try {
+      if (connected && binary) {
+        serveBinary();
+      } else if (connected) {
+        serveText();
+      }
+
+      out.flush();  // the responses held back while the client was pipelining its requests
+
+      input.close();
+    } catch (IOException e) {
+      logError(e.getMessage());
+    } finally {
+      out.close();
+      Server.connectionClosed(this);
+      logInfo(socket.getInetAddress() + " has disconnected");
+    }
+
+  }
+
+  private void serveText() {
+
     do {
 
       Request candidateReq = null;
 
       try {
-        candidateReq = new Request(in.readLine().trim());
+        String line = readRequestLine();
+        if (line == null) {
+          break;
+        }
+        candidateReq = new Request(line.trim());
+      } catch (LimitExceededException e) {
+        logError(e.getMessage() + " for " + socket.getInetAddress());
+        transmitErrorResponse(e.getMessage());
+        break;
       } catch (IOException e) {
         logError(e.getMessage());
         transmitErrorResponse(e.getMessage());
         break;
       } finally {
-        logInfo((candidateReq == null ?
+        final Request received = candidateReq;
+        logRequest(() -> (received == null ?
                 "Didn't receive request" :
-                "Received request \"" + candidateReq + "\"") +
+                "Received request \"" + received + "\"") +
                 " from " +
                 socket.getInetAddress()
         );
       }
 
       long requestStartTime = System.currentTimeMillis();
+      long receivedNanos = System.nanoTime();
 
       TokenizedRequest request;
 
       try {
-        request = new RequestParser(candidateReq).parse();
+        request = new RequestParser(candidateReq, (handle, global) -> handlesOf(global).get(handle)).parse();
       } catch (MalformedRequestException e) {
         logError("Failed to parse request (" + e.getMessage() + ")");
         transmitErrorResponse(e.getMessage());
+        capture(candidateReq, receivedNanos, out::lastLine);
         continue;
       }
 
       if (request.type() == TokenizedRequest.RequestType.QUIT) {
+        capture(candidateReq, receivedNanos, () -> "");
         break;
       }
 
-      String resp;
+      // the responses held back for the requests already served would otherwise wait for this computation too
+      if (request.type() == TokenizedRequest.RequestType.COMP || request.type() == TokenizedRequest.RequestType.BATCH || request.type() == TokenizedRequest.RequestType.STREAM) {
+        out.flush();
+      }
+
+      List<Number> results;
       try {
-        resp = RequestHandler.generateResponse(request);
+        results = switch (request.type()) {
+          case PREPARE -> List.of(prepare((PrepareRequest) request));
+          case RELEASE -> List.of(release((ReleaseRequest) request));
+          default -> RequestHandler.generateResults(request, this::transmitProgressResponse, this::logRequestInfo);
+        };
       } catch (Exception e) {
         logError(e.getMessage());
         transmitErrorResponse(e.getMessage());
+        capture(candidateReq, receivedNanos, out::lastLine);
         continue;
       }
 
       long responseTime = System.currentTimeMillis() - requestStartTime;
-      Server.updateRespsStats(responseTime);
+      // the statistics are about the computations, the handles are bookkeeping of the connection
+      if (request.type() != TokenizedRequest.RequestType.PREPARE && request.type() != TokenizedRequest.RequestType.RELEASE) {
+        Server.updateRespsStats(responseTime);
+      }
 
-      transmitOkResponse(resp, responseTime);
+      transmitOkResponse(request, results, responseTime);
+      capture(candidateReq, receivedNanos, out::lastLine);
 
-      logInfo("Replied to " + socket.getInetAddress() + " with \"" + resp +  "\"");
+      logRequest(() -> "Replied to " + socket.getInetAddress() + " with \"" + out.lastLine() +  "\"");
 
     } while (true);
 
+  }
+
+  // a line of the text protocol, without its terminator, null when the client closed the connection before sending
+  // one. The client has Server.idleTimeoutMillis() to start a request and Server.readTimeoutMillis() from its first
+  // byte to send the whole of it
+  private String readRequestLine() throws IOException {
+    lineBuffer.reset();
+    int b;
     try {
-      in.close();
+      socket.setSoTimeout(Server.idleTimeoutMillis());
+      b = readByte();
+    } catch (SocketTimeoutException e) {
+      Server.idleTimeouts().incrementAndGet();
+      throw new LimitExceededException("Idle timeout");
+    }
+    if (b == -1) {
+      return null;
+    }
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Server.readTimeoutMillis());
+    int timeoutMillis = 0;
+    while (b != '\n' && b != -1) {
+      if (lineBuffer.size() == Server.maxRequestBytes()) {
+        Server.oversizedReqs().incrementAndGet();
+        throw new LimitExceededException("Request too long");
+      }
+      lineBuffer.write(b);
+      // the timeout only changes once a millisecond, most bytes come from the buffer anyway
+      int remainingMillis = (int) TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+      if (remainingMillis != timeoutMillis) {
+        timeoutMillis = remainingMillis;
+        if (timeoutMillis <= 0) {
+          Server.readTimeouts().incrementAndGet();
+          throw new LimitExceededException("Read timeout");
+        }
+        socket.setSoTimeout(timeoutMillis);
+      }
+      try {
+        b = readByte();
+      } catch (SocketTimeoutException e) {
+        Server.readTimeouts().incrementAndGet();
+        throw new LimitExceededException("Read timeout");
+      }
+    }
+    String result = lineBuffer.toString(StandardCharsets.UTF_8);
+    return result.endsWith("\r") ? result.substring(0, result.length() - 1) : result;
+  }
+
+  // the responses held back for the requests already received are flushed before a read that would block, their
+  // client may well wait for them before sending the rest of its next request
+  private int readByte() throws IOException {
+    if (out.pending() > 0 && input.available() == 0) {
+      out.flush();
+    }
+    return input.read();
+  }
+
+  // the whole of buf from the client, which has until deadline, in System.nanoTime(), to send it
+  private void readFully(byte[] buf, int length, long deadline) throws IOException {
+    for (int read = 0; read < length; ) {
+      int remainingMillis = (int) TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+      if (remainingMillis <= 0) {
+        throw new SocketTimeoutException("Read timeout");
+      }
+      socket.setSoTimeout(remainingMillis);
+      int n = input.read(buf, read, length - read);
+      if (n == -1) {
+        throw new EOFException();
+      }
+      read += n;
+    }
+  }
+
+  // a limit of the connection the client went over, the connection is closed after telling it which one
+  private static class LimitExceededException extends IOException {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    LimitExceededException(String msg) {
+      super(msg);
+    }
+
+  }
+
+  // called periodically by the server, a client that stops reading its responses would otherwise block the
+  // handler forever once the send buffer of the socket is full. Closing the socket fails the blocked write
+  boolean closeIfWriteStalled(long now, long timeoutNanos) {
+    long start = writeStartTime;
+    if (start == 0 || now - start < timeoutNanos) {
+      return false;
+    }
+    logError("Write timeout for " + socket.getInetAddress());
+    writeStartTime = 0;  // counted once
+    try {
+      socket.close();
+    } catch (IOException e) {
+      logError(e.getMessage());
+    }
+    return true;
+  }
+
+  private class WatchedOutputStream extends FilterOutputStream {
+
+    WatchedOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      writeStartTime = System.nanoTime();
+      try {
+        out.write(b);
+      } finally {
+        writeStartTime = 0;
+      }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      writeStartTime = System.nanoTime();
+      try {
+        out.write(b, off, len);
+      } finally {
+        writeStartTime = 0;
+      }
+    }
+
+  }
+
+  private HandleRegistry handlesOf(boolean global) {
+    return global ? Server.globalHandles() : handles;
+  }
+
+  // the handles prepared by the connection, its global ones included, are at most Server.maxPrepared(), so that no
+  // connection can take all the global handles for itself
+  private int prepare(PrepareRequest request) throws MalformedRequestException {
+    if (handles.ownedBy(connectionId) + Server.globalHandles().ownedBy(connectionId) >= Server.maxPrepared()) {
+      throw new MalformedRequestException("Too many prepared expressions, release some first");
+    }
+    return handlesOf(request.global()).prepare(request.expressions(), connectionId);
+  }
+
+  // the number of expressions released
+  private int release(ReleaseRequest request) throws MalformedRequestException {
+    List<Node> released = handlesOf(request.global()).release(request.handle());
+    if (released == null) {
+      throw new MalformedRequestException("Unknown handle " + (request.global() ? "@@" : "@") + request.handle());
+    }
+    return released.size();
+  }
+
+  // the request and its response go to the capture file when the server records its traffic
+  private void capture(Request request, long receivedNanos, Supplier<String> response) {
+    TrafficRecorder recorder = Server.trafficRecorder();
+    if (recorder != null) {
+      recorder.record(connectionId, receivedNanos, request.toString(), response.get());
+    }
+  }
+
+  private void serveBinary() {
+
+    DataInputStream frameIn = new DataInputStream(input);
+    OutputStream frameOut;
+    ByteBuffer reqBuf = ByteBuffer.allocate(256);
+    ByteBuffer respBuf = ByteBuffer.allocate(256);
+
+    try {
+      frameOut = output;
+      frameOut.write(BinaryCodec.HANDSHAKE);  // acknowledges the switch to the binary protocol
+      frameOut.flush();
+    } catch (IOException e) {
+      logError(e.getMessage());
+      return;
+    }
+
+    do {
+
+      int frameLength;
+      boolean idle = true;
+      try {
+        socket.setSoTimeout(Server.idleTimeoutMillis());
+        frameLength = frameIn.readInt();
+        idle = false;
+        if (frameLength < 0 || frameLength > BinaryCodec.MAX_FRAME_LENGTH) {
+          logError("Invalid frame length " + frameLength + " from " + socket.getInetAddress());
+          transmitBinaryErrorResponse(frameOut, respBuf, "Invalid frame length");
+          break;
+        }
+        if (frameLength > Server.maxRequestBytes()) {
+          logError("Request too long for " + socket.getInetAddress());
+          Server.oversizedReqs().incrementAndGet();
+          transmitBinaryErrorResponse(frameOut, respBuf, "Request too long");
+          break;
+        }
+        if (reqBuf.capacity() < frameLength) {
+          reqBuf = ByteBuffer.allocate(Integer.highestOneBit(frameLength - 1) << 1);
+        }
+        readFully(reqBuf.array(), frameLength, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Server.readTimeoutMillis()));
+        reqBuf.clear().limit(frameLength);
+      } catch (EOFException e) {
+        break;
+      } catch (SocketTimeoutException e) {
+        String reason = idle ? "Idle timeout" : "Read timeout";
+        logError(reason + " for " + socket.getInetAddress());
+        (idle ? Server.idleTimeouts() : Server.readTimeouts()).incrementAndGet();
+        transmitBinaryErrorResponse(frameOut, respBuf, reason);
+        break;
+      } catch (IOException e) {
+        logError(e.getMessage());
+        break;
+      }
+
+      long requestStartTime = System.currentTimeMillis();
+
+      TokenizedRequest request;
+      try {
+        request = BinaryCodec.decodeRequest(reqBuf);
+      } catch (MalformedRequestException e) {
+        logError("Failed to decode request (" + e.getMessage() + ")");
+        if (!transmitBinaryErrorResponse(frameOut, respBuf, e.getMessage())) {
+          break;
+        }
+        continue;
+      }
+
+      logRequest(() -> "Received request \"" + request + "\" from " + socket.getInetAddress());
+
+      if (request.type() == TokenizedRequest.RequestType.QUIT) {
+        break;
+      }
+
+      List<Number> results;
+      try {
+        final ByteBuffer progressBuf = respBuf;
+        results = RequestHandler.generateResults(request, progress -> transmitBinaryProgressResponse(frameOut, progressBuf, progress), this::logRequestInfo);
+      } catch (Exception e) {
+        logError(e.getMessage());
+        if (!transmitBinaryErrorResponse(frameOut, respBuf, String.valueOf(e.getMessage()))) {
+          break;
+        }
+        continue;
+      }
+
+      long responseTime = System.currentTimeMillis() - requestStartTime;
+      Server.updateRespsStats(responseTime);
+
+      if (respBuf.capacity() < BinaryCodec.okResponseLength(results.size())) {
+        respBuf = ByteBuffer.allocate(BinaryCodec.okResponseLength(results.size()));
+      }
+      respBuf.clear();
+      try {
+        BinaryCodec.encodeOkResponse(respBuf, (double) responseTime / (double) 1000, results);
+      } catch (IllegalArgumentException e) {
+        // more results than the count of an OK frame can hold, e.g. a BATCH of MULTI requests over many variables
+        logError(e.getMessage());
+        if (!transmitBinaryErrorResponse(frameOut, respBuf, e.getMessage())) {
+          break;
+        }
+        continue;
+      }
+      try {
+        frameOut.write(respBuf.array(), 0, respBuf.position());
+        frameOut.flush();
+      } catch (IOException e) {
+        logError(e.getMessage());
+        break;
+      }
+
+    } while (true);
+
+  }
+
+  private boolean transmitBinaryErrorResponse(OutputStream frameOut, ByteBuffer respBuf, String msg) {
+    respBuf.clear();
+    BinaryCodec.encodeErrorResponse(respBuf, msg);
+    try {
+      frameOut.write(respBuf.array(), 0, respBuf.position());
+      frameOut.flush();
+      return true;
+    } catch (IOException e) {
+      logError(e.getMessage());
+      return false;
+    }
+  }
+
+  private void transmitBinaryProgressResponse(OutputStream frameOut, ByteBuffer respBuf, RequestHandler.Progress progress) {
+    respBuf.clear();
+    BinaryCodec.encodeProgressResponse(respBuf, progress.fraction(), progress.min(), progress.max(), progress.avg(), (double) progress.elapsedTimeInMillis() / (double) 1000);
+    try {
+      frameOut.write(respBuf.array(), 0, respBuf.position());
+      frameOut.flush();
     } catch (IOException e) {
       logError(e.getMessage());
-    } finally {
-      out.close();
-      logInfo(socket.getInetAddress() + " has disconnected");
     }
+  }
 
+  // progress frames are meant to be seen while the client waits, so they are never held back
+  private void transmitProgressResponse(RequestHandler.Progress progress) {
+    out.writeProgress(progress);
+    out.flush();
   }
 
   private void transmitErrorResponse(String msg) {
-    transmitResponse("ERR;" + msg.toUpperCase());
+    out.writeError(msg);
+    flushUnlessMoreRequestsPending();
   }
 
-  private void transmitOkResponse(String msg, final long responseTimeInMillis) {
-    transmitResponse("OK;" + String.format("%#.3f;%s", (double) responseTimeInMillis / (double) 1000, msg.toUpperCase()));
+  private void transmitOkResponse(TokenizedRequest request, List<Number> results, final long responseTimeInMillis) {
+    out.writeOk(request, results, responseTimeInMillis);
+    flushUnlessMoreRequestsPending();
   }
 
-  private void transmitResponse(String msg) {
-    out.println(msg);
+  // a client pipelining its requests gets all the responses of the requests already received in a single write, up
+  // to MAX_HELD_BACK_BYTES, so that a client sending without reading cannot grow the buffer without bound. They are
+  // held back only while the next request can be read without waiting for the client, see readByte
+  private void flushUnlessMoreRequestsPending() {
+    try {
+      if (out.pending() < MAX_HELD_BACK_BYTES && input.available() > 0) {
+        return;
+      }
+    } catch (IOException e) {
+      logError(e.getMessage());
+    }
+    out.flush();
   }
 
   private void logInfo(String msg) {
-    Server.logMessage("Info : " + msg, System.out);
+    if (logged) {
+      Server.logMessage("Info : " + msg, System.out);
+    }
+  }
+
+  // the messages logged for every request are only built when they are logged
+  private void logRequest(Supplier<String> msg) {
+    if (logged && Server.logRequests()) {
+      logInfo(msg.get());
+    }
+  }
+
+  // what the computation of a request logs about it, see RequestHandler
+  private void logRequestInfo(String msg) {
+    logRequest(() -> msg);
   }
 
   private void logError(String msg) {
-    Server.logMessage("Error : " + msg, System.err);
+    if (logged) {
+      Server.logMessage("Error : " + msg, System.err);
+    }
   }
 
 
@@ -116,40 +534,156 @@ public class ClientHandler extends Thread {
   static class RequestHandler {
 
     static String generateResponse(TokenizedRequest request) throws ExecutionException, InterruptedException, MalformedRequestException {
+      return generateResponse(request, null);
+    }
 
-      return switch (request.type()) {
-        case QUIT -> generateQuitResponse();
-        case STAT -> generateStatResponse((StatRequest) request);
-        case COMP -> generateComputationResponse((CompRequest) request);
-      };
+    // the progress listener is only notified by STREAM requests, it can be null
+    static String generateResponse(TokenizedRequest request, Consumer<Progress> progressListener) throws ExecutionException, InterruptedException, MalformedRequestException {
+      return ResponseWriter.format(request, generateResults(request, progressListener));
+    }
 
+    // same as generateResponse, but yields the raw results, the protocols format them on their own
+    static List<Number> generateResults(TokenizedRequest request, Consumer<Progress> progressListener) throws ExecutionException, InterruptedException, MalformedRequestException {
+      return generateResults(request, progressListener, msg -> {
+      });
     }
 
-    private static String generateQuitResponse() {
-      return "";
+    // what the computation finds out about the request, such as the variables it collapsed, is told to log, which
+    // is the log of the connection that sent it
+    static List<Number> generateResults(TokenizedRequest request, Consumer<Progress> progressListener, Consumer<String> log) throws ExecutionException, InterruptedException, MalformedRequestException {
+
+      return switch (request.type()) {
+        case QUIT -> List.of();
+        // the casts keep the count a Long, a conditional between a long and a double would promote it to double
+        case STAT -> List.of(((StatRequest) request).kind().isDuration() ?
+                (Number) ((double) computeStat((StatRequest) request) / (double) 1000) :
+                (Number) computeStat((StatRequest) request));
+        case COMP -> generateComputationResult((CompRequest) request, log);
+        case BATCH -> generateBatchResults((BatchRequest) request, log);
+        case STREAM -> generateStreamResults((StreamRequest) request, progressListener, log);
+        // the handles belong to a connection, see ClientHandler.serveText
+        case PREPARE, RELEASE -> throw new MalformedRequestException("Prepared expressions need a connection of the text protocol");
+      };
+
     }
 
-    private static String generateStatResponse(final StatRequest req) throws ExecutionException, InterruptedException {
+    private static long computeStat(final StatRequest req) throws ExecutionException, InterruptedException {
 
       Future<Long> result = Server.STAT_REQS_EXECUTOR.submit(() -> switch (req.kind()) {
         case StatRequest.StatKind.REQS -> Server.numOfOkResps();
         case StatRequest.StatKind.AVG_TIME -> Server.avgRespTimeInMillis();
         case StatRequest.StatKind.MAX_TIME -> Server.maxRespTimeInMillis();
+        case StatRequest.StatKind.CONNS -> (long) Server.numOfConnections();
+        case StatRequest.StatKind.REJECTED_CONNS -> Server.rejectedConns().get();
+        case StatRequest.StatKind.IDLE_TIMEOUTS -> Server.idleTimeouts().get();
+        case StatRequest.StatKind.READ_TIMEOUTS -> Server.readTimeouts().get();
+        case StatRequest.StatKind.WRITE_TIMEOUTS -> Server.writeTimeouts().get();
+        case StatRequest.StatKind.OVERSIZED_REQS -> Server.oversizedReqs().get();
+        case StatRequest.StatKind.COALESCED_REQS -> Server.coalescedReqs().get();
       });
 
-      return req.kind() == StatRequest.StatKind.REQS ?
-              String.valueOf(result.get()) :
-              String.format("%#.3f", (double) result.get() / (double) 1000);
+      return result.get();
     }
 
-    private static String generateComputationResponse(final CompRequest req) throws MalformedRequestException, ExecutionException, InterruptedException {
+    // the computations in progress, by the binary encoding of their request, which is the same for requests that only
+    // differ in their spacing or parentheses. An entry lives only as long as its computation
+    static final ConcurrentHashMap<ByteBuffer, CompletableFuture<List<Number>>> IN_FLIGHT = new ConcurrentHashMap<>();
+
+    // a request identical to one already being computed waits for its results instead of being computed again
+    private static List<Number> generateComputationResult(final CompRequest req, final Consumer<String> log) throws MalformedRequestException, ExecutionException, InterruptedException {
+      validateVariables(req);
+
+      byte[] key = ResultStore.key(req);
+      if (key == null) {
+        return computeComputationResult(req, log);
+      }
+
+      CompletableFuture<List<Number>> computation = new CompletableFuture<>();
+      CompletableFuture<List<Number>> inFlight = IN_FLIGHT.putIfAbsent(ByteBuffer.wrap(key), computation);
+      if (inFlight != null) {
+        Server.coalescedReqs().incrementAndGet();
+        try {
+          return inFlight.get();
+        } catch (ExecutionException e) {
+          // the same error the computation that was joined got
+          switch (e.getCause()) {
+            case MalformedRequestException cause -> throw cause;
+            case ExecutionException cause -> throw cause;
+            case RuntimeException cause -> throw cause;
+            default -> throw e;
+          }
+        }
+      }
+
+      try {
+        List<Number> results = computeComputationResult(req, log);
+        computation.complete(results);
+        return results;
+      } catch (Throwable e) {
+        computation.completeExceptionally(e);
+        throw e;
+      } finally {
+        IN_FLIGHT.remove(ByteBuffer.wrap(key), computation);
+      }
+    }
+
+    private static List<Number> computeComputationResult(final CompRequest req, final Consumer<String> log) throws MalformedRequestException, ExecutionException, InterruptedException {
+      ResultStore store = ResultStore.canStore(req) ? Server.resultStore() : null;
+      if (store != null) {
+        try {
+          List<Number> stored = store.get(req);
+          if (stored != null) {
+            return stored;
+          }
+        } catch (IOException e) {
+          Server.logMessage("Result store: " + e.getMessage(), System.err);
+        }
+      }
+
+      // the domain is reduced before it is split, the store keeps the results under the request as received
+      List<Number> results;
+      CompRequest swept = collapseMonotoneVariables(req, log);
+      Coordinator coordinator = Server.coordinator();
+      if (coordinator != null && Coordinator.canDistribute(swept)) {
+        // a closed form is cheaper than splitting the domain
+        Double closedForm = closedFormAvg(swept);
+        results = closedForm != null ? List.of(closedForm) : List.of(coordinator.compute(swept, swept.variableValues().stream().map(a).toList(),
+                part -> computeResults(List.of(part), null, log).getFirst().getFirst()));
+      } else {
+        results = computeResults(List.of(swept), null, log).getFirst();
+      }
+
+      if (store != null) {
+        try {
+          store.put(req, results);
+        } catch (IOException e) {
+          Server.logMessage("Result store: " + e.getMessage(), System.err);
+        }
+      }
+      return results;
+    }
+
+    // the results of the requests are concatenated in the same order as the requests
+    private static List<Number> generateBatchResults(final BatchRequest req, final Consumer<String> log) throws MalformedRequestException, ExecutionException, InterruptedException {
+      for (CompRequest r : req.requests()) {
+        validateVariables(r);
+      }
+      return computeResults(req.requests(), null, log).stream().flatMap(List::stream).toList();
+    }
+
+    private static List<Number> generateStreamResults(final StreamRequest req, final Consumer<Progress> progressListener, final Consumer<String> log) throws MalformedRequestException, ExecutionException, InterruptedException {
+      validateVariables(req.request());
+      return computeResults(List.of(req.request()), progressListener, log).getFirst();
+    }
+
+    private static void validateVariables(final CompRequest req) throws MalformedRequestException {
 
       // we check that for every expression all the variables are present in the VariableValues declaration
       boolean variablesAreValid = switch (req.kind()) {
         // the COUNT operation is only concerned about the size of the domain, the expressions can be arbitrary
         case COUNT -> true;
-        // the AVG operation only deals with the first expression inputted by the user, the rest can be garbage
-        case AVG -> exprVarsSubsetOfVarVals(List.of(req.expressions().getFirst()), req.variableValues());
+        // the AVG, MULTI and APPROX_AVG operations only deal with the first expression inputted by the user, the rest can be garbage
+        case AVG, MULTI, APPROX_AVG -> exprVarsSubsetOfVarVals(List.of(req.expressions().getFirst()), req.variableValues());
         default -> exprVarsSubsetOfVarVals(req.expressions(), req.variableValues());
       };
 
@@ -157,92 +691,291 @@ public class ClientHandler extends Thread {
         throw new MalformedRequestException("Not all variables in the expressions are declared in the VariableValues");
       }
 
-      return computeResult(req).toString();
-
     }
 
-    private static Number computeResult(CompRequest req) throws MalformedRequestException, ExecutionException, InterruptedException {
+    // Step 1 : Parsing of VariableValuesFunction to a
+    // This function takes a VariableValue declaration and turns it into a set of real values
+    // You should feed this function a null VariableValue in case it is not present in the declaration
+    static final Function<CompRequest.VariableValue, Set<Double>> a = variableValue -> {
+      Set<Double> result = new LinkedHashSet<>(); // we use a LinkedHashSet because the range has an inherent order, and we save on having to use a comparator after
+      if (variableValue == null) {
+        result = null;
+      } else {
+        for (double x = variableValue.startingVal(); x <= variableValue.finalVal(); x += variableValue.step()) {
+          result.add(x);
+        }
+        result.add(variableValue.finalVal());
+      }
+      return result;
+    };
+
+    // the requests are grouped by domain, every domain is enumerated only once and all the requests sharing it
+    // are evaluated in the same sweep; the results are returned in the same order as the requests.
+    // When a progress listener is given it receives the progress of the first request every Server.PROGRESS_INTERVAL_MILLIS
+    // of the sweeps, so it is never called for a request with a closed form or sampled, which is not swept
+    private static List<List<Number>> computeResults(List<CompRequest> reqs, Consumer<Progress> progressListener, Consumer<String> log) throws MalformedRequestException, ExecutionException, InterruptedException {
+
+      long startTime = System.currentTimeMillis();
+
+      record Domain(CompRequest.ValuesKind valuesKind, List<CompRequest.VariableValue> variableValues) {
+      }
 
-      // Step 1 : Parsing of VariableValuesFunction to a
-      // This function takes a VariableValue declaration and turns it into a set of real values
-      // You should feed this function a null VariableValue in case it is not present in the declaration
-      Function<CompRequest.VariableValue, Set<Double>> a = variableValue -> {
-        Set<Double> result = new LinkedHashSet<>(); // we use a LinkedHashSet because the range has an inherent order, and we save on having to use a comparator after
-        if (variableValue == null) {
-          result = null;
-        } else {
-          for (double x = variableValue.startingVal(); x <= variableValue.finalVal(); x += variableValue.step()) {
-            result.add(x);
+      List<Accumulator> accumulators = new ArrayList<>();
+      Map<Domain, List<Accumulator>> groups = new LinkedHashMap<>();
+      // the approximate requests with a domain larger than their budget are sampled instead of swept
+      Map<Accumulator, Future<List<Number>>> samplings = new HashMap<>();
+      // the AVG of a polynomial over a GRID needs no sweep at all
+      Map<Accumulator, List<Number>> closedForms = new HashMap<>();
+      for (CompRequest req : reqs) {
+        Accumulator acc = new Accumulator(req);
+        accumulators.add(acc);
+        Double closedForm = closedFormAvg(req);
+        if (closedForm != null) {
+          closedForms.put(acc, List.of(closedForm));
+          continue;
+        }
+        CompRequest swept = collapseMonotoneVariables(req, log);
+        if (req.kind().isApproximate()) {
+          int sampleBudget = req.sampleBudget() == 0 ? Server.approxSampleBudget() : req.sampleBudget();
+          if (Sampler.domainSize(req.valuesKind(), req.variableValues()) > sampleBudget) {
+            samplings.put(acc, Server.COMP_REQS_EXECUTOR.submit(() -> Sampler.estimate(req, sampleBudget, Server.approxTimeBudgetMillis())));
+            continue;
           }
-          result.add(variableValue.finalVal());
         }
-        return result;
-      };
-
-      // Step 2 : building of value tuples T from a
-      Set<ValueTuple> T = getTupleBuilder(req.valuesKind()).apply(req.variableValues().parallelStream().map(a).toList());
-      if(T == null){
-        throw new MalformedRequestException(switch (req.valuesKind()){
-          case GRID -> "The range of one of the variables is the empty set";
-          case LIST -> "Variables' ranges do not have the same magnitude";
-        });
+        groups.computeIfAbsent(new Domain(swept.valuesKind(), swept.variableValues()), k -> new ArrayList<>()).add(acc);
       }
 
-      // Step 4 : computation of o from T and E
-      return switch (req.kind()) {
+      // the domains are built inside the sweeps, so that a streamed request reports its progress while that happens too
+      List<Future<Boolean>> sweeps = new ArrayList<>();
+      for (Map.Entry<Domain, List<Accumulator>> group : groups.entrySet()) {
 
-        case COUNT -> Server.COMP_REQS_EXECUTOR.submit(T::size).get();
+        sweeps.add(Server.COMP_REQS_EXECUTOR.submit(() -> {
 
-        case MAX -> Server.COMP_REQS_EXECUTOR.submit(() -> {
-          double max = Double.NEGATIVE_INFINITY;
-          for (Expression e : req.expressions()) {
-            for (ValueTuple t : T) {
-              Map<String, Double> input = new HashMap<>();  // this map tells us what value to substitute for each variable inside the expression
-              int c = 0;
-              for (CompRequest.VariableValue v : req.variableValues()) {
-                input.put(v.name(), t.values[c++]);
-              }
-              if (max < e.toRealVariableVectorFunction().apply(input)) {
-                max = e.toRealVariableVectorFunction().apply(input);
-              }
-            }
+          // Step 2 : building of value tuples T from a
+          Set<ValueTuple> T = getTupleBuilder(group.getKey().valuesKind()).apply(group.getKey().variableValues().parallelStream().map(a).toList());
+          if (T == null) {
+            return false;
           }
-          return max;
-        }).get();
-
-        case MIN -> Server.COMP_REQS_EXECUTOR.submit(() -> {
-          double min = Double.POSITIVE_INFINITY;
-          for (Expression e : req.expressions()) {
-            for (ValueTuple t : T) {
-              Map<String, Double> input = new HashMap<>();
-              int c = 0;
-              for (CompRequest.VariableValue v : req.variableValues()) {
-                input.put(v.name(), t.values[c++]);
-              }
-              if (min > e.toRealVariableVectorFunction().apply(input)) {
-                min = e.toRealVariableVectorFunction().apply(input);
-              }
-            }
-          }
-          return min;
-        }).get();
 
-        case AVG -> Server.COMP_REQS_EXECUTOR.submit(() -> {
-          double sum = 0;
+          // Step 4 : computation of o from T and E
+          int visited = 0;
           for (ValueTuple t : T) {
-            Map<String, Double> input = new HashMap<>();
+            Map<String, Double> input = new HashMap<>();  // this map tells us what value to substitute for each variable inside the expression
             int c = 0;
-            for (CompRequest.VariableValue v : req.variableValues()) {
+            for (CompRequest.VariableValue v : group.getKey().variableValues()) {
               input.put(v.name(), t.values[c++]);
             }
-            sum += req.expressions().getFirst().toRealVariableVectorFunction().apply(input);
+            for (Accumulator acc : group.getValue()) {
+              acc.accept(t, input);
+            }
+            if (progressListener != null && ++visited % PROGRESS_GRANULARITY == 0) {
+              for (Accumulator acc : group.getValue()) {
+                acc.publishProgress((double) visited / (double) T.size());
+              }
+            }
           }
-          return sum / T.size();
-        }).get();
+          return true;
+
+        }));
+
+      }
+
+      Iterator<Domain> domains = groups.keySet().iterator();
+      for (Future<Boolean> sweep : sweeps) {
+        boolean domainIsValid;
+        while (true) {
+          try {
+            domainIsValid = progressListener == null ?
+                    sweep.get() :
+                    sweep.get(Server.PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            break;
+          } catch (TimeoutException e) {
+            progressListener.accept(accumulators.getFirst().progress(System.currentTimeMillis() - startTime));
+          }
+        }
+        CompRequest.ValuesKind valuesKind = domains.next().valuesKind();
+        if (!domainIsValid) {
+          throw new MalformedRequestException(switch (valuesKind) {
+            case GRID -> "The range of one of the variables is the empty set";
+            case LIST -> "Variables' ranges do not have the same magnitude";
+          });
+        }
+      }
+
+      List<List<Number>> results = new ArrayList<>();
+      for (Accumulator acc : accumulators) {
+        Future<List<Number>> sampling = samplings.get(acc);
+        results.add(closedForms.containsKey(acc) ? closedForms.get(acc) : sampling == null ? acc.result() : sampling.get());
+      }
+      return results;
+    }
+
+    // the MIN or MAX of a GRID only needs the value of a variable at the end of its range toward which every expression
+    // goes down, for MIN, or up, for MAX, see Monotonicity. The variable then takes that single value in the sweep,
+    // which gives the same result as the whole range. The variables the expressions do not depend on take their first value
+    private static CompRequest collapseMonotoneVariables(CompRequest req, Consumer<String> log) {
+      if (req.valuesKind() != CompRequest.ValuesKind.GRID || req.kind() != CompRequest.ComputationKind.MIN && req.kind() != CompRequest.ComputationKind.MAX) {
+        return req;
+      }
+      Map<String, double[]> ranges = new HashMap<>();
+      for (CompRequest.VariableValue v : req.variableValues()) {
+        ranges.put(v.name(), new double[]{v.startingVal(), v.finalVal()});
+      }
+      // a variable declared twice takes the values of the last declaration in the expressions
+      if (ranges.size() != req.variableValues().size()) {
+        return req;
+      }
+
+      Map<String, Monotonicity.Direction> directions = new HashMap<>();
+      for (Expression e : req.expressions()) {
+        Map<String, Monotonicity.Direction> d = Monotonicity.of(e.root(), ranges);
+        if (d == null) {
+          return req;
+        }
+        d.forEach((name, direction) -> directions.merge(name, direction, Monotonicity.Direction::and));
+      }
+
+      List<CompRequest.VariableValue> variableValues = new ArrayList<>();
+      StringJoiner collapsed = new StringJoiner(", ");
+      for (CompRequest.VariableValue v : req.variableValues()) {
+        Monotonicity.Direction direction = directions.getOrDefault(v.name(), Monotonicity.Direction.CONSTANT);
+        if (direction == Monotonicity.Direction.NONE || v.startingVal().equals(v.finalVal())) {
+          variableValues.add(v);
+          continue;
+        }
+        boolean atStart = direction == Monotonicity.Direction.CONSTANT || (direction == Monotonicity.Direction.INCREASING) == (req.kind() == CompRequest.ComputationKind.MIN);
+        double value = atStart ? v.startingVal() : v.finalVal();
+        variableValues.add(new CompRequest.VariableValue(v.name(), value, v.step(), value));
+        collapsed.add(v.name() + "=" + value + " (" + direction.name().toLowerCase() + ")");
+      }
+      if (collapsed.length() == 0) {
+        return req;
+      }
+      log.accept("Collapsed " + collapsed + " in \"" + req + "\"");
+      return req.withVariableValues(variableValues);
+    }
+
+    // the AVG of a GRID whose first expression is a polynomial, from the means of the powers of each variable over its
+    // values rather than from the tuples of the domain, see Polynomial. Null for any other request, or when the
+    // closed form would not be accurate, the domain is then swept
+    private static Double closedFormAvg(CompRequest req) {
+      if (req.kind() != CompRequest.ComputationKind.AVG || req.valuesKind() != CompRequest.ValuesKind.GRID) {
+        return null;
+      }
+      Polynomial polynomial = Polynomial.of(req.expressions().getFirst().root());
+      if (polynomial == null) {
+        return null;
+      }
+      Map<String, Set<Double>> values = new HashMap<>();
+      for (CompRequest.VariableValue v : req.variableValues()) {
+        values.put(v.name(), a.apply(v));
+      }
+      return polynomial.meanOverGrid(values);
+    }
+
+    // number of tuples evaluated between two publications of the progress of a sweep
+    private static final int PROGRESS_GRANULARITY = 1 << 12;
+
+    record Progress(double fraction, double min, double max, double avg, long elapsedTimeInMillis) {
+    }
+
+    // keeps the running aggregates of a single computation request while its domain is swept
+    private static class Accumulator {
+
+      private final CompRequest req;
+      private final List<Function<Map<String, Double>, Double>> functions;
+      private double min = Double.POSITIVE_INFINITY;
+      private double max = Double.NEGATIVE_INFINITY;
+      private double sum = 0;
+      private int count = 0;
+      // only used by MULTI requests, the variance is computed with Welford's algorithm
+      private double mean = 0;
+      private double m2 = 0;
+      private Double[] argMin;
+      private Double[] argMax;
+      // written by the sweeping thread and read by the one waiting for the result, elapsed time is filled in on read
+      private volatile Progress progress = new Progress(0, Double.NaN, Double.NaN, Double.NaN, 0);
+
+      Accumulator(CompRequest req) {
+        this.req = req;
+        this.functions = switch (req.kind()) {
+          case COUNT -> List.of();
+          case AVG, MULTI, APPROX_AVG -> List.of(req.expressions().getFirst().toRealVariableVectorFunction());
+          default -> req.expressions().stream().map(Expression::toRealVariableVectorFunction).toList();
+        };
+      }
+
+      void accept(ValueTuple t, Map<String, Double> input) {
+        count++;
+        for (Function<Map<String, Double>, Double> f : functions) {
+          double value = f.apply(input);
+          if (min > value) {
+            min = value;
+            argMin = t.values;
+          }
+          if (max < value) {
+            max = value;
+            argMax = t.values;
+          }
+          sum += value;
+          if (req.kind() == CompRequest.ComputationKind.MULTI) {
+            double delta = value - mean;
+            mean += delta / count;
+            m2 += delta * (value - mean);
+          }
+        }
+      }
+
+      void publishProgress(double fraction) {
+        progress = new Progress(fraction,
+                count == 0 || functions.isEmpty() ? Double.NaN : min,
+                count == 0 || functions.isEmpty() ? Double.NaN : max,
+                count == 0 || functions.isEmpty() ? Double.NaN : sum / ((double) count * functions.size()),
+                0);
+      }
+
+      Progress progress(long elapsedTimeInMillis) {
+        Progress p = progress;
+        return new Progress(p.fraction(), p.min(), p.max(), p.avg(), elapsedTimeInMillis);
+      }
+
+      List<Number> result() {
+        return switch (req.kind()) {
+          case COUNT -> List.of(count);
+          case MAX -> List.of(max);
+          case MIN -> List.of(min);
+          case AVG -> List.of(sum / count);
+          // a domain within the sample budget is computed exactly, the bound is then 0
+          case APPROX_AVG -> List.of(sum / count, 0.0, count);
+          case APPROX_MIN -> List.of(min, 0.0, count);
+          case APPROX_MAX -> List.of(max, 0.0, count);
+          case MULTI -> {
+            List<Number> result = new ArrayList<>();
+            for (CompRequest.Aggregate aggregate : req.aggregates()) {
+              switch (aggregate) {
+                case MIN -> result.add(min);
+                case MAX -> result.add(max);
+                case AVG -> result.add(sum / count);
+                case COUNT -> result.add(count);
+                case VAR -> result.add(m2 / count);
+                case ARGMIN -> result.addAll(argToList(argMin));
+                case ARGMAX -> result.addAll(argToList(argMax));
+              }
+            }
+            yield result;
+          }
+        };
+      }
+
+      // when every value is NaN no tuple reaches the MIN or the MAX
+      private List<Number> argToList(Double[] arg) {
+        return arg == null ? Collections.nCopies(req.variableValues().size(), Double.NaN) : Arrays.asList((Number[]) arg);
+      }
 
-      };
     }
 
+    // the tuples keep the order of the values of each variable, a GRID is built in lexicographic order with the first
+    // variable varying slowest, so that the ARGMIN and ARGMAX of tied values are always those of the first tuple reached
     private static Function<List<Set<Double>>, Set<ValueTuple>> getTupleBuilder(CompRequest.ValuesKind valuesKind) {
 
       Function<List<Set<Double>>, Set<ValueTuple>> cartesianProduct = sets -> {
@@ -253,7 +986,7 @@ public class ClientHandler extends Thread {
         }
         Set<ValueTuple> result = ValueTuple.valueSetToTupleSet(sets.getFirst());
         for (int i = 1; i < sets.size(); i++) {
-          Set<ValueTuple> tmpResult = new HashSet<>();
+          Set<ValueTuple> tmpResult = new LinkedHashSet<>();
           for (ValueTuple t : result) {
             for (Double d : sets.get(i)) {
               tmpResult.add(new ValueTuple(t, d));
@@ -270,7 +1003,7 @@ public class ClientHandler extends Thread {
             return null;
           }
         }
-        Set<ValueTuple> result = new HashSet<>();
+        Set<ValueTuple> result = new LinkedHashSet<>();
         List<Iterator<Double>> iterators = new ArrayList<>();
         for (Set<Double> set : sets) {
           iterators.add(set.iterator());
@@ -323,7 +1056,7 @@ public class ClientHandler extends Thread {
       }
 
       static Set<ValueTuple> valueSetToTupleSet(Set<Double> setToTuple) {
-        Set<ValueTuple> setTupled = new HashSet<>();
+        Set<ValueTuple> setTupled = new LinkedHashSet<>();
         for (Double d : setToTuple) {
           setTupled.add(valueToTuple(d));
         }
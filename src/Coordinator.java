@@ -0,0 +1,278 @@
+import parsers.request.BinaryCodec;
+import parsers.request.CompRequest;
+import parsers.request.MalformedRequestException;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serial;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Splits the GRID computations among other instances of the server, the workers, which are sent the parts
+// over the binary protocol. The range of the first variable is cut in contiguous chunks, every chunk becomes
+// a request of its own over the same grid, and the results of the parts are merged back:
+// the MAX of the maxima, the MIN of the minima and the AVG of the averages weighted by the size of their parts.
+// A part whose worker fails is handed to the next one, when every worker has failed it is computed locally, as is a
+// part a worker answered with an error, or a request that cannot be encoded.
+class Coordinator {
+
+  // more parts than workers, so that a slow part does not keep all the others waiting
+  private static final int PARTS_PER_WORKER = 2;
+  private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+  // the parts are sent as STREAM requests, a worker sends something at least every Server.PROGRESS_INTERVAL_MILLIS
+  // while computing, one silent for much longer than that is considered lost
+  private static final int READ_TIMEOUT_MILLIS = (int) (10 * Server.PROGRESS_INTERVAL_MILLIS);
+  // a worker that failed is not tried again for a while, unless no other worker is left
+  private static final long SUSPENSION_MILLIS = 5000;
+
+  private final List<InetSocketAddress> workers;
+  private final Map<InetSocketAddress, Long> suspendedUntil = new ConcurrentHashMap<>();
+  private final ExecutorService partsExecutor = Executors.newCachedThreadPool();
+
+  Coordinator(List<InetSocketAddress> workers) {
+    this.workers = workers;
+  }
+
+  // host:port,host:port,...
+  static Coordinator fromAddresses(String addresses) {
+    List<InetSocketAddress> workers = new ArrayList<>();
+    for (String address : addresses.split(",")) {
+      int separator = address.lastIndexOf(':');
+      if (separator <= 0) {
+        throw new IllegalArgumentException("Invalid worker address " + address);
+      }
+      try {
+        workers.add(new InetSocketAddress(address.substring(0, separator), Integer.parseInt(address.substring(separator + 1))));
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("Invalid worker address " + address);
+      }
+    }
+    return new Coordinator(workers);
+  }
+
+  List<InetSocketAddress> workers() {
+    return workers;
+  }
+
+  // the other kinds cannot be merged from the results of the parts, LIST domains are not worth splitting, nor is a
+  // single value of the first variable, which is the one split
+  static boolean canDistribute(CompRequest req) {
+    CompRequest.VariableValue first = req.variableValues().getFirst();
+    return req.valuesKind() == CompRequest.ValuesKind.GRID && first.startingVal() < first.finalVal() && switch (req.kind()) {
+      case MIN, MAX, AVG, COUNT -> true;
+      default -> false;
+    };
+  }
+
+  interface PartEvaluator {
+    Number evaluate(CompRequest part) throws MalformedRequestException, ExecutionException, InterruptedException;
+  }
+
+  // valueSets are the sets of values of the variables, in the same order as the VariableValues of req;
+  // localEvaluator computes a part on this server when no worker could
+  Number compute(CompRequest req, List<Set<Double>> valueSets, PartEvaluator localEvaluator) throws MalformedRequestException, ExecutionException, InterruptedException {
+
+    long innerSize = 1;
+    for (int i = 1; i < valueSets.size(); i++) {
+      innerSize *= valueSets.get(i).size();
+    }
+    List<Double> outerValues = new ArrayList<>(valueSets.getFirst());
+
+    // the size of the grid does not depend on the expressions, there is nothing to send
+    if (req.kind() == CompRequest.ComputationKind.COUNT) {
+      return (int) (outerValues.size() * innerSize);
+    }
+    // the AVG only evaluates the first expression, the others are not validated and may not even be encodable
+    if (req.kind() == CompRequest.ComputationKind.AVG) {
+      req = req.withExpressions(List.of(req.expressions().getFirst()));
+    }
+
+    // a chunk of the range of the first variable is generated again by the worker starting from its first value
+    // with the same step, which adds up to the very same doubles; the last chunk keeps the original final value
+    CompRequest.VariableValue outer = req.variableValues().getFirst();
+    int numOfParts = Math.min(outerValues.size(), workers.size() * PARTS_PER_WORKER);
+    List<CompRequest> parts = new ArrayList<>();
+    List<byte[]> frames = new ArrayList<>();
+    List<Long> sizes = new ArrayList<>();
+    for (int p = 0; p < numOfParts; p++) {
+      int from = (int) ((long) p * outerValues.size() / numOfParts);
+      int to = (int) ((long) (p + 1) * outerValues.size() / numOfParts);
+      List<CompRequest.VariableValue> variableValues = new ArrayList<>(req.variableValues());
+      variableValues.set(0, new CompRequest.VariableValue(outer.name(), outerValues.get(from), outer.step(),
+              p == numOfParts - 1 ? outer.finalVal() : outerValues.get(to - 1)));
+      CompRequest part = req.withVariableValues(variableValues);
+      try {
+        frames.add(encode(part));
+      } catch (IllegalArgumentException e) {
+        // the parts only differ in their first variable, none of them can be sent
+        Server.logMessage("Cannot split the request among the workers (" + e.getMessage() + "), computing it locally", System.err);
+        return localEvaluator.evaluate(req);
+      }
+      parts.add(part);
+      sizes.add((to - from) * innerSize);
+    }
+
+    List<Future<Number>> results = new ArrayList<>();
+    for (int p = 0; p < numOfParts; p++) {
+      CompRequest part = parts.get(p);
+      byte[] frame = frames.get(p);
+      int firstWorker = p % workers.size();
+      results.add(partsExecutor.submit(() -> evaluate(part, frame, firstWorker, localEvaluator)));
+    }
+
+    double min = Double.POSITIVE_INFINITY;
+    double max = Double.NEGATIVE_INFINITY;
+    double sum = 0;
+    long count = 0;
+    for (int p = 0; p < numOfParts; p++) {
+      double value;
+      try {
+        value = results.get(p).get().doubleValue();
+      } catch (ExecutionException e) {
+        // a part computed locally fails the way the whole request would have
+        if (e.getCause() instanceof MalformedRequestException cause) {
+          throw cause;
+        }
+        throw e;
+      }
+      if (min > value) {
+        min = value;
+      }
+      if (max < value) {
+        max = value;
+      }
+      sum += value * sizes.get(p);
+      count += sizes.get(p);
+    }
+
+    return switch (req.kind()) {
+      case MIN -> min;
+      case MAX -> max;
+      default -> sum / count;
+    };
+
+  }
+
+  // the handshake followed by the STREAM request frame of the part
+  private static byte[] encode(CompRequest part) {
+    ByteBuffer buf = ByteBuffer.allocate(1 << 12);
+    while (true) {
+      try {
+        buf.put(BinaryCodec.HANDSHAKE);
+        BinaryCodec.encodeStreamRequest(part, buf);
+        return Arrays.copyOf(buf.array(), buf.position());
+      } catch (BufferOverflowException e) {
+        buf = ByteBuffer.allocate(2 * buf.capacity());
+      }
+    }
+  }
+
+  private Number evaluate(CompRequest part, byte[] frame, int firstWorker, PartEvaluator localEvaluator) throws MalformedRequestException, ExecutionException, InterruptedException {
+
+    // the suspended workers are tried last
+    List<InetSocketAddress> candidates = new ArrayList<>();
+    List<InetSocketAddress> suspended = new ArrayList<>();
+    for (int i = 0; i < workers.size(); i++) {
+      InetSocketAddress worker = workers.get((firstWorker + i) % workers.size());
+      (suspendedUntil.getOrDefault(worker, 0L) > System.currentTimeMillis() ? suspended : candidates).add(worker);
+    }
+    candidates.addAll(suspended);
+
+    for (InetSocketAddress worker : candidates) {
+      try {
+        double result = evaluateRemotely(frame, worker);
+        suspendedUntil.remove(worker);
+        return result;
+      } catch (RejectedPartException e) {
+        // the worker works, the part is what it refused, another worker would refuse it too. Computed locally it
+        // gets either its result or the error the client has to see
+        Server.logMessage("Worker " + worker + " refused part " + part.variableValues().getFirst() + " (" + e.getMessage() + "), computing it locally", System.err);
+        return localEvaluator.evaluate(part);
+      } catch (IOException | BufferUnderflowException e) {
+        suspendedUntil.put(worker, System.currentTimeMillis() + SUSPENSION_MILLIS);
+        Server.logMessage("Worker " + worker + " failed (" + e + "), reassigning part " + part.variableValues().getFirst(), System.err);
+      }
+    }
+
+    Server.logMessage("No worker available, computing part " + part.variableValues().getFirst() + " locally", System.err);
+    return localEvaluator.evaluate(part);
+
+  }
+
+  // an ERR response of a worker, about the request it was sent rather than the connection
+  private static class RejectedPartException extends Exception {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    RejectedPartException(String msg) {
+      super(msg);
+    }
+
+  }
+
+  private static double evaluateRemotely(byte[] frame, InetSocketAddress worker) throws IOException, RejectedPartException {
+
+    try (Socket socket = new Socket()) {
+
+      socket.connect(worker, CONNECT_TIMEOUT_MILLIS);
+      socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+      socket.setTcpNoDelay(true);
+
+      OutputStream out = socket.getOutputStream();
+      out.write(frame);
+      out.flush();
+
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      if (in.readByte() != BinaryCodec.HANDSHAKE) {
+        throw new IOException("not a server");
+      }
+      // the PROGRESS frames only tell us the worker is alive
+      while (true) {
+        int length = in.readInt();
+        if (length <= 0 || length > BinaryCodec.MAX_FRAME_LENGTH) {
+          throw new IOException("invalid frame length " + length);
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        ByteBuffer frameIn = ByteBuffer.wrap(payload);
+        switch (frameIn.get()) {
+          case BinaryCodec.PROGRESS -> {
+          }
+          case BinaryCodec.OK -> {
+            frameIn.getDouble();  // response time
+            if (frameIn.getShort() != 1) {
+              throw new IOException("unexpected number of results");
+            }
+            return frameIn.getDouble();
+          }
+          case BinaryCodec.ERR -> {
+            byte[] msg = new byte[Short.toUnsignedInt(frameIn.getShort())];
+            frameIn.get(msg);
+            throw new RejectedPartException(new String(msg, StandardCharsets.US_ASCII));
+          }
+          default -> throw new IOException("invalid response status");
+        }
+      }
+
+    }
+
+  }
+
+}
@@ -0,0 +1,230 @@
+import java.math.BigInteger;
+
+// Writes doubles as the same ASCII text Double.toString would produce (uppercased, so NAN and INFINITY),
+// directly into a byte array and without allocating.
+// The shortest decimal that rounds back to the double is found with the Schubfach algorithm by R. Giulietti,
+// "The Schubfach way to render doubles", the same one used by Double.toString since JDK 19.
+final class DoubleToAscii {
+
+  // the longest output is something like -1.2345678901234567E-308
+  static final int MAX_CHARS = 24;
+
+  private static final int P = 53;
+  private static final int Q_MIN = -1074;
+  private static final long C_MIN = 1L << (P - 1);
+  private static final int BQ_MASK = 0x7FF;
+  private static final long T_MASK = C_MIN - 1;
+  private static final long C_TINY = 3;
+  private static final int K_MIN = -324;
+  private static final int K_MAX = 292;
+  private static final long MASK_63 = (1L << 63) - 1;
+
+  private static final byte[] NAN = {'N', 'A', 'N'};
+  private static final byte[] INFINITY = {'I', 'N', 'F', 'I', 'N', 'I', 'T', 'Y'};
+
+  private static final long[] POW10 = new long[19];
+  // g1 and g0 halves of floor(10^-k 2^-r) + 1, with r such that the value is in [2^125, 2^126)
+  private static final long[] G = new long[2 * (K_MAX - K_MIN + 1)];
+
+  static {
+    POW10[0] = 1;
+    for (int i = 1; i < POW10.length; i++) {
+      POW10[i] = 10 * POW10[i - 1];
+    }
+    for (int k = K_MIN; k <= K_MAX; k++) {
+      int r = flog2pow10(-k) - 125;
+      BigInteger num = BigInteger.TEN.pow(Math.max(-k, 0)).shiftLeft(Math.max(-r, 0));
+      BigInteger den = BigInteger.TEN.pow(Math.max(k, 0)).shiftLeft(Math.max(r, 0));
+      BigInteger g = num.divide(den).add(BigInteger.ONE);
+      G[2 * (k - K_MIN)] = g.shiftRight(63).longValueExact();
+      G[2 * (k - K_MIN) + 1] = g.longValue() & MASK_63;
+    }
+  }
+
+  private DoubleToAscii() {
+  }
+
+  // writes v at buf[pos] and returns the position after the last char written, buf needs MAX_CHARS free bytes
+  static int write(double v, byte[] buf, int pos) {
+    long bits = Double.doubleToRawLongBits(v);
+    long t = bits & T_MASK;
+    int bq = (int) (bits >>> (P - 1)) & BQ_MASK;
+    if (bq == BQ_MASK) {
+      if (t != 0) {
+        return copy(NAN, buf, pos);
+      }
+      if (bits < 0) {
+        buf[pos++] = '-';
+      }
+      return copy(INFINITY, buf, pos);
+    }
+    if (bits < 0) {
+      buf[pos++] = '-';
+    }
+    if (bq != 0) {
+      int mq = -Q_MIN + 1 - bq;
+      long c = C_MIN | t;
+      // integers below 2^53 are written exactly
+      if (0 < mq && mq < P) {
+        long f = c >> mq;
+        if (f << mq == c) {
+          return toChars(f, 0, buf, pos);
+        }
+      }
+      return toDecimal(-mq, c, 0, buf, pos);
+    }
+    if (t != 0) {
+      return t < C_TINY ?
+              toDecimal(Q_MIN, 10 * t, -1, buf, pos) :
+              toDecimal(Q_MIN, t, 0, buf, pos);
+    }
+    buf[pos++] = '0';
+    buf[pos++] = '.';
+    buf[pos++] = '0';
+    return pos;
+  }
+
+  // v = c 2^q, finds the shortest decimal in the rounding interval of v
+  private static int toDecimal(int q, long c, int dk, byte[] buf, int pos) {
+    int out = (int) c & 0x1;
+    long cb = c << 2;
+    long cbr = cb + 2;
+    long cbl;
+    int k;
+    if (c != C_MIN || q == Q_MIN) {
+      cbl = cb - 2;
+      k = flog10pow2(q);
+    } else {
+      cbl = cb - 1;
+      k = flog10threeQuartersPow2(q);
+    }
+    int h = q + flog2pow10(-k) + 2;
+
+    long g1 = G[2 * (k - K_MIN)];
+    long g0 = G[2 * (k - K_MIN) + 1];
+
+    long vb = rop(g1, g0, cb << h);
+    long vbl = rop(g1, g0, cbl << h);
+    long vbr = rop(g1, g0, cbr << h);
+
+    long s = vb >> 2;
+    if (s >= 100) {
+      long sp10 = 10 * Math.multiplyHigh(s, 115_292_150_460_684_698L << 4);
+      long tp10 = sp10 + 10;
+      boolean upin = vbl + out <= sp10 << 2;
+      boolean wpin = (tp10 << 2) + out <= vbr;
+      if (upin != wpin) {
+        return toChars(upin ? sp10 : tp10, k, buf, pos);
+      }
+    }
+
+    long t = s + 1;
+    boolean uin = vbl + out <= s << 2;
+    boolean win = (t << 2) + out <= vbr;
+    if (uin != win) {
+      return toChars(uin ? s : t, k + dk, buf, pos);
+    }
+    long cmp = vb - (s + t << 1);
+    return toChars(cmp < 0 || cmp == 0 && (s & 0x1) == 0 ? s : t, k + dk, buf, pos);
+  }
+
+  // writes f 10^e in the layout of Double.toString
+  private static int toChars(long f, int e, byte[] buf, int pos) {
+    while (f % 10 == 0) {
+      f /= 10;
+      e++;
+    }
+    int len = 1;
+    while (len < POW10.length && f >= POW10[len]) {
+      len++;
+    }
+    // f 10^e = 0.d1...dlen 10^exp
+    int exp = e + len;
+
+    if (0 < exp && exp <= 7) {
+      for (int i = 0; i < Math.max(len, exp); i++) {
+        if (i == exp) {
+          buf[pos++] = '.';
+        }
+        buf[pos++] = i < len ? digit(f, len, i) : (byte) '0';
+      }
+      if (len <= exp) {
+        buf[pos++] = '.';
+        buf[pos++] = '0';
+      }
+      return pos;
+    }
+
+    if (-3 < exp && exp <= 0) {
+      buf[pos++] = '0';
+      buf[pos++] = '.';
+      for (int i = exp; i < 0; i++) {
+        buf[pos++] = '0';
+      }
+      for (int i = 0; i < len; i++) {
+        buf[pos++] = digit(f, len, i);
+      }
+      return pos;
+    }
+
+    buf[pos++] = digit(f, len, 0);
+    buf[pos++] = '.';
+    if (len == 1) {
+      buf[pos++] = '0';
+    }
+    for (int i = 1; i < len; i++) {
+      buf[pos++] = digit(f, len, i);
+    }
+    buf[pos++] = 'E';
+    return writeLong(exp - 1, buf, pos);
+  }
+
+  // writes v at buf[pos] and returns the position after the last char written, buf needs 20 free bytes
+  static int writeLong(long v, byte[] buf, int pos) {
+    if (v < 0) {
+      buf[pos++] = '-';
+    } else {
+      v = -v;  // works on negative values so that Long.MIN_VALUE needs no special case
+    }
+    int len = 1;
+    while (len < POW10.length && v <= -POW10[len]) {
+      len++;
+    }
+    for (int i = len - 1; i >= 0; i--) {
+      buf[pos + i] = (byte) ('0' - v % 10);
+      v /= 10;
+    }
+    return pos + len;
+  }
+
+  private static byte digit(long f, int len, int i) {
+    return (byte) ('0' + f / POW10[len - 1 - i] % 10);
+  }
+
+  private static int copy(byte[] chars, byte[] buf, int pos) {
+    System.arraycopy(chars, 0, buf, pos, chars.length);
+    return pos + chars.length;
+  }
+
+  private static long rop(long g1, long g0, long cp) {
+    long x1 = Math.multiplyHigh(g0, cp);
+    long y0 = g1 * cp;
+    long y1 = Math.multiplyHigh(g1, cp);
+    long z = (y0 >>> 1) + x1;
+    long vbp = y1 + (z >>> 63);
+    return vbp | (z & MASK_63) + MASK_63 >>> 63;
+  }
+
+  private static int flog10pow2(int e) {
+    return (int) (e * 661_971_961_083L >> 41);
+  }
+
+  private static int flog10threeQuartersPow2(int e) {
+    return (int) (e * 661_971_961_083L + -274_743_187_321L >> 41);
+  }
+
+  private static int flog2pow10(int e) {
+    return (int) (e * 913_124_641_741L >> 38);
+  }
+
+}
@@ -0,0 +1,61 @@
+import parsers.expression.Node;
+import parsers.request.MalformedRequestException;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// The expressions registered by PREPARE, by handle. Every connection has its own registry, dropped with it, and the
+// server has one for PREPARE_GLOBAL. The handles of a registry count from 1 and are not reused while in use.
+// Every handle remembers the id of the connection that prepared it, so that the global handles of a connection count
+// against its own limit too, see ClientHandler.
+class HandleRegistry {
+
+  private record Prepared(List<Node> expressions, int owner) {
+  }
+
+  private final int limit;
+  private final Map<Integer, Prepared> expressions = new HashMap<>();
+  private final Map<Integer, Integer> owned = new HashMap<>();
+  private int nextHandle = 1;
+
+  HandleRegistry(int limit) {
+    this.limit = limit;
+  }
+
+  synchronized int prepare(List<Node> prepared, int owner) throws MalformedRequestException {
+    if (expressions.size() >= limit) {
+      throw new MalformedRequestException("Too many prepared expressions, release some first");
+    }
+    int handle;
+    do {
+      handle = nextHandle;
+      nextHandle = nextHandle == Integer.MAX_VALUE ? 1 : nextHandle + 1;
+    } while (expressions.containsKey(handle));
+    expressions.put(handle, new Prepared(prepared, owner));
+    owned.merge(owner, 1, Integer::sum);
+    return handle;
+  }
+
+  // null when the handle is unknown
+  synchronized List<Node> get(int handle) {
+    Prepared prepared = expressions.get(handle);
+    return prepared == null ? null : prepared.expressions();
+  }
+
+  // the expressions released, null when the handle is unknown
+  synchronized List<Node> release(int handle) {
+    Prepared prepared = expressions.remove(handle);
+    if (prepared == null) {
+      return null;
+    }
+    owned.computeIfPresent(prepared.owner(), (owner, n) -> n == 1 ? null : n - 1);
+    return prepared.expressions();
+  }
+
+  // the number of handles prepared by owner still in use
+  synchronized int ownedBy(int owner) {
+    return owned.getOrDefault(owner, 0);
+  }
+
+}
@@ -0,0 +1,236 @@
+import parsers.request.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+// Formats the responses of the text protocol straight into a reused byte buffer, numbers included, so that no
+// intermediate String is built. Nothing reaches the socket until flush is called, which lets the caller send
+// several responses with a single write. Like PrintWriter it never throws, errors are reported by checkError.
+class ResponseWriter {
+
+  private final OutputStream out;
+  private byte[] buf = new byte[1024];
+  private int count = 0;
+  // bounds of the last response written, without the line terminator, still valid after it has been flushed
+  private int lineStart = 0;
+  private int lineEnd = 0;
+  private boolean error = false;
+
+  ResponseWriter(OutputStream out) {
+    this.out = out;
+  }
+
+  // formats the results the same way writeOk does, for the callers that need them as a String
+  static String format(TokenizedRequest request, List<Number> results) {
+    ResponseWriter writer = new ResponseWriter(OutputStream.nullOutputStream());
+    writer.writeResults(request, results);
+    return new String(writer.buf, 0, writer.count, StandardCharsets.UTF_8);
+  }
+
+  // OK;<response time>;<results>
+  void writeOk(TokenizedRequest request, List<Number> results, long responseTimeInMillis) {
+    lineStart = count;
+    writeAscii("OK;");
+    writeMillisAsSeconds(responseTimeInMillis);
+    writeByte(';');
+    writeResults(request, results);
+    lineEnd = count;
+    writeByte('\n');
+  }
+
+  // ERR;<message>
+  void writeError(String msg) {
+    lineStart = count;
+    writeAscii("ERR;");
+    writeUpperCase(String.valueOf(msg));
+    lineEnd = count;
+    writeByte('\n');
+  }
+
+  // PROGRESS;<fraction>;<min>;<max>;<avg>;<elapsed time>, none for a STREAM request answered without a sweep or
+  // within Server.PROGRESS_INTERVAL_MILLIS, see BinaryCodec
+  void writeProgress(ClientHandler.RequestHandler.Progress progress) {
+    lineStart = count;
+    writeAscii("PROGRESS;");
+    writeMillisAsSeconds(Math.round(progress.fraction() * 1000));
+    writeByte(';');
+    writeDouble(progress.min());
+    writeByte(';');
+    writeDouble(progress.max());
+    writeByte(';');
+    writeDouble(progress.avg());
+    writeByte(';');
+    writeMillisAsSeconds(progress.elapsedTimeInMillis());
+    lineEnd = count;
+    writeByte('\n');
+  }
+
+  // the last response written, without the line terminator
+  String lastLine() {
+    return new String(buf, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8);
+  }
+
+  // the bytes written and not flushed yet
+  int pending() {
+    return count;
+  }
+
+  void flush() {
+    if (error) {
+      return;
+    }
+    try {
+      out.write(buf, 0, count);
+      out.flush();
+    } catch (IOException e) {
+      error = true;
+    }
+    count = 0;
+  }
+
+  boolean checkError() {
+    flush();
+    return error;
+  }
+
+  void close() {
+    flush();
+    try {
+      out.close();
+    } catch (IOException e) {
+      error = true;
+    }
+  }
+
+  private void writeResults(TokenizedRequest request, List<Number> results) {
+    switch (request.type()) {
+      case QUIT -> {
+      }
+      case STAT -> {
+        if (((StatRequest) request).kind().isDuration()) {
+          writeMillisAsSeconds(Math.round(results.getFirst().doubleValue() * 1000));
+        } else {
+          writeNumber(results.getFirst());
+        }
+      }
+      case COMP -> writeComputationResult((CompRequest) request, results, 0);
+      // the handle as it is written in the computation requests
+      case PREPARE -> {
+        writeAscii(((PrepareRequest) request).global() ? "@@" : "@");
+        writeNumber(results.getFirst());
+      }
+      case RELEASE -> writeNumber(results.getFirst());
+      case BATCH -> {
+        int next = 0;
+        for (CompRequest r : ((BatchRequest) request).requests()) {
+          if (next != 0) {
+            writeByte(',');
+          }
+          next = writeComputationResult(r, results, next);
+        }
+      }
+      case STREAM -> writeComputationResult(((StreamRequest) request).request(), results, 0);
+    }
+  }
+
+  // writes the result of req starting at results[from] and returns the index of the first result not written,
+  // see CompRequest.Aggregate for the format of MULTI results and CompRequest.ComputationKind for the approximate ones
+  private int writeComputationResult(CompRequest req, List<Number> results, int from) {
+    if (req.kind().isApproximate()) {
+      writeAscii(req.kind().exactKind().name());
+      writeByte('=');
+      writeNumber(results.get(from));
+      writeAscii(req.kind() == CompRequest.ComputationKind.APPROX_AVG ? " CI95=" : " TAIL95=");
+      writeNumber(results.get(from + 1));
+      writeAscii(" SAMPLES=");
+      writeNumber(results.get(from + 2));
+      return from + 3;
+    }
+    if (req.kind() != CompRequest.ComputationKind.MULTI) {
+      writeNumber(results.get(from));
+      return from + 1;
+    }
+    int next = from;
+    for (CompRequest.Aggregate aggregate : req.aggregates()) {
+      if (next != from) {
+        writeByte(' ');
+      }
+      writeAscii(aggregate.name());
+      writeByte('=');
+      int numOfValues = aggregate == CompRequest.Aggregate.ARGMIN || aggregate == CompRequest.Aggregate.ARGMAX ? req.variableValues().size() : 1;
+      for (int i = 0; i < numOfValues; i++) {
+        if (i != 0) {
+          writeByte(':');
+        }
+        writeNumber(results.get(next++));
+      }
+    }
+    return next;
+  }
+
+  private void writeNumber(Number n) {
+    if (n instanceof Double d) {
+      writeDouble(d);
+    } else {
+      ensureCapacity(20);
+      count = DoubleToAscii.writeLong(n.longValue(), buf, count);
+    }
+  }
+
+  private void writeDouble(double d) {
+    ensureCapacity(DoubleToAscii.MAX_CHARS);
+    count = DoubleToAscii.write(d, buf, count);
+  }
+
+  // same as String.format("%#.3f", millis / 1000.0) for non negative values
+  private void writeMillisAsSeconds(long millis) {
+    ensureCapacity(24);
+    count = DoubleToAscii.writeLong(millis / 1000, buf, count);
+    buf[count++] = '.';
+    buf[count++] = (byte) ('0' + millis / 100 % 10);
+    buf[count++] = (byte) ('0' + millis / 10 % 10);
+    buf[count++] = (byte) ('0' + millis % 10);
+  }
+
+  private void writeAscii(String s) {
+    ensureCapacity(s.length());
+    for (int i = 0; i < s.length(); i++) {
+      buf[count++] = (byte) s.charAt(i);
+    }
+  }
+
+  // same as writing msg.toUpperCase() as UTF-8, but char by char
+  private void writeUpperCase(String msg) {
+    ensureCapacity(3 * msg.length());
+    for (int i = 0; i < msg.length(); i++) {
+      char c = Character.toUpperCase(msg.charAt(i));
+      if (c < 0x80) {
+        buf[count++] = (byte) c;
+      } else if (c < 0x800) {
+        buf[count++] = (byte) (0xC0 | c >> 6);
+        buf[count++] = (byte) (0x80 | c & 0x3F);
+      } else if (Character.isSurrogate(c)) {
+        buf[count++] = '?';
+      } else {
+        buf[count++] = (byte) (0xE0 | c >> 12);
+        buf[count++] = (byte) (0x80 | c >> 6 & 0x3F);
+        buf[count++] = (byte) (0x80 | c & 0x3F);
+      }
+    }
+  }
+
+  private void writeByte(char c) {
+    ensureCapacity(1);
+    buf[count++] = (byte) c;
+  }
+
+  private void ensureCapacity(int numOfBytes) {
+    if (count + numOfBytes > buf.length) {
+      buf = Arrays.copyOf(buf, Math.max(2 * buf.length, count + numOfBytes));
+    }
+  }
+
+}
@@ -0,0 +1,508 @@
+import parsers.request.BinaryCodec;
+import parsers.request.CompRequest;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+// Keeps the results of the computations on disk, so that they survive a restart of the server.
+// The results are appended to a data file and found through an open addressing hash table kept in a memory mapped
+// index file, keyed by the binary encoding of the request (see BinaryCodec), which is the same for every request
+// that computes the same thing whatever the way it was written.
+//
+//  data file  : int MAGIC | long generation | records
+//  record     : int payloadLength | payload | int crc32(payload)
+//  payload    : int keyLength | key | short n | n * (byte tag | double or long value)
+//  index file : int MAGIC | int capacity | long generation | long indexedLength | int count | int (unused) |
+//               capacity * (long keyHash | long recordOffset), recordOffset 0 when the slot is empty
+//
+// The pages of a mapped file reach the disk in any order, so every write that another depends on is forced first: a
+// record is forced before the index slot pointing to it is written, and the slot before the header counting it is
+// updated. After a crash the index can only lack the last records, or point to one it has not counted yet, which
+// are added again when the store is opened, since they lie past the indexed length. A crash loses at most the
+// results whose put had not returned, a record cut short by it fails its CRC and is dropped with whatever follows it.
+// The index belongs to the data file with the same generation, any other one is rebuilt from the records.
+// When the data file grows past its cap the oldest records are dropped, keeping half of it, on a thread of its own
+// (see compact), the request that went over the cap does not wait for it.
+// The lookups share a read lock. The data file is mapped again only when it has doubled since it was last mapped,
+// the records appended since then are read from the file.
+class ResultStore {
+
+  private static final int DATA_MAGIC = 0x50525344;
+  private static final int INDEX_MAGIC = 0x50525349;
+  private static final int DATA_HEADER_LENGTH = Integer.BYTES + Long.BYTES;
+  private static final int INDEX_HEADER_LENGTH = 32;
+  private static final int SLOT_LENGTH = 2 * Long.BYTES;
+  private static final int MIN_CAPACITY = 1 << 10;
+  private static final byte DOUBLE_TAG = 0;
+  private static final byte LONG_TAG = 1;
+
+  private final Path dataPath;
+  private final Path indexPath;
+  private final long maxBytes;
+  private FileChannel data;
+  private MappedByteBuffer dataMap;
+  private MappedByteBuffer indexMap;
+  private long generation;
+  private long dataLength;
+  private int capacity;
+  private int count;
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+    Thread t = new Thread(r, "result-store-compaction");
+    t.setDaemon(true);
+    return t;
+  });
+  // the compaction in progress, null when there is none
+  private Future<?> compaction = null;
+
+  private ResultStore(Path dir, long maxBytes) {
+    this.dataPath = dir.resolve("results.dat");
+    this.indexPath = dir.resolve("results.idx");
+    this.maxBytes = maxBytes;
+  }
+
+  // opens the store kept in dir, creating it if needed, and recovers it from an interrupted write
+  static ResultStore open(Path dir, long maxBytes) throws IOException {
+    Files.createDirectories(dir);
+    ResultStore store = new ResultStore(dir, Math.min(maxBytes, Integer.MAX_VALUE));
+    store.openData();
+    store.openIndex();
+    return store;
+  }
+
+  // the approximate results depend on the time they were given, there is no point in keeping them
+  static boolean canStore(CompRequest req) {
+    return !req.kind().isApproximate();
+  }
+
+  // brings the whole index and data in memory, so that the first lookups do not wait for the disk
+  void load() {
+    lock.readLock().lock();
+    try {
+      indexMap.load();
+      dataMap.load();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  int size() {
+    lock.readLock().lock();
+    try {
+      return count;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  long sizeInBytes() {
+    lock.readLock().lock();
+    try {
+      return dataLength;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  // the stored results of req, null if there are none
+  List<Number> get(CompRequest req) throws IOException {
+    byte[] key = key(req);
+    if (key == null) {
+      return null;
+    }
+    lock.readLock().lock();
+    try {
+      long offset = find(key, hash(key));
+      return offset == 0 ? null : readResults(offset, key.length);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  void put(CompRequest req, List<Number> results) throws IOException {
+    byte[] key = key(req);
+    if (key == null) {
+      return;
+    }
+    lock.writeLock().lock();
+    try {
+      put(key, results);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void put(byte[] key, List<Number> results) throws IOException {
+
+    long hash = hash(key);
+    if (find(key, hash) != 0) {
+      return;
+    }
+
+    int payloadLength = Integer.BYTES + key.length + Short.BYTES + results.size() * (1 + Long.BYTES);
+    ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + payloadLength + Integer.BYTES);
+    record.putInt(payloadLength).putInt(key.length).put(key).putShort((short) results.size());
+    for (Number r : results) {
+      if (r instanceof Double d) {
+        record.put(DOUBLE_TAG).putDouble(d);
+      } else {
+        record.put(LONG_TAG).putLong(r.longValue());
+      }
+    }
+    record.putInt(crc(record.array(), Integer.BYTES, payloadLength));
+
+    record.flip();
+    long offset = dataLength;
+    while (record.hasRemaining()) {
+      data.write(record, offset + record.position());
+    }
+    data.force(false);
+    dataLength += record.limit();
+    int slotPosition = insert(hash, offset);
+    indexMap.force(slotPosition, SLOT_LENGTH);
+    indexMap.putInt(24, count).putLong(16, dataLength);
+    indexMap.force(0, INDEX_HEADER_LENGTH);
+
+    if (dataLength > 2L * dataMap.capacity()) {
+      dataMap = data.map(FileChannel.MapMode.READ_ONLY, 0, dataLength);
+    }
+
+    if (2 * count > capacity) {
+      rebuildIndex(2 * capacity);
+    }
+    if (dataLength > maxBytes && compaction == null) {
+      compaction = compactor.submit(this::compact);
+    }
+
+  }
+
+  void close() throws IOException {
+    lock.writeLock().lock();
+    try {
+      compactor.shutdown();
+      indexMap.force();
+      data.close();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  // returns once the compaction in progress, if any, is over
+  void awaitCompaction() throws InterruptedException, ExecutionException {
+    Future<?> pending;
+    lock.readLock().lock();
+    try {
+      pending = compaction;
+    } finally {
+      lock.readLock().unlock();
+    }
+    if (pending != null) {
+      pending.get();
+    }
+  }
+
+  private void openData() throws IOException {
+    data = FileChannel.open(dataPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    ByteBuffer header = ByteBuffer.allocate(DATA_HEADER_LENGTH);
+    if (data.size() < DATA_HEADER_LENGTH || data.read(header, 0) != DATA_HEADER_LENGTH || header.getInt(0) != DATA_MAGIC) {
+      generation = System.currentTimeMillis();
+      data.truncate(0);
+      data.write(header.clear().putInt(DATA_MAGIC).putLong(generation).flip(), 0);
+      data.force(true);
+    } else {
+      generation = header.getLong(Integer.BYTES);
+    }
+    dataLength = data.size();
+    dataMap = data.map(FileChannel.MapMode.READ_ONLY, 0, dataLength);
+  }
+
+  private void openIndex() throws IOException {
+    if (Files.exists(indexPath)) {
+      try (FileChannel index = FileChannel.open(indexPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        if (index.size() >= INDEX_HEADER_LENGTH) {
+          indexMap = index.map(FileChannel.MapMode.READ_WRITE, 0, index.size());
+        }
+      }
+    }
+    if (indexMap == null
+            || indexMap.getInt(0) != INDEX_MAGIC
+            || indexMap.getLong(8) != generation
+            || Integer.bitCount(indexMap.getInt(4)) != 1
+            || indexMap.capacity() != INDEX_HEADER_LENGTH + (long) indexMap.getInt(4) * SLOT_LENGTH
+            || indexMap.getLong(16) < DATA_HEADER_LENGTH
+            || indexMap.getLong(16) > dataLength) {
+      rebuildIndex(MIN_CAPACITY);
+      return;
+    }
+    capacity = indexMap.getInt(4);
+    count = indexMap.getInt(24);
+    // the records written after the last update of the index
+    List<Long> offsets = new ArrayList<>();
+    truncateData(scan(indexMap.getLong(16), offsets));
+    if (2 * (count + offsets.size()) > capacity) {
+      rebuildIndex(2 * capacity);
+      return;
+    }
+    // a record may already have its slot when the crash came before the header counting it was written
+    for (long offset : offsets) {
+      byte[] key = readKey(offset);
+      long hash = hash(key);
+      if (find(key, hash) == 0) {
+        insert(hash, offset);
+      } else {
+        count++;
+      }
+    }
+    indexMap.putInt(24, count).putLong(16, dataLength);
+    indexMap.force();
+  }
+
+  // the position after the last valid record starting from offset, the offsets of the records are added to offsets
+  private long scan(long offset, List<Long> offsets) throws IOException {
+    if (dataLength > dataMap.capacity()) {
+      dataMap = data.map(FileChannel.MapMode.READ_ONLY, 0, dataLength);
+    }
+    while (offset + 2 * Integer.BYTES <= dataLength) {
+      int payloadLength = dataMap.getInt((int) offset);
+      if (payloadLength < Integer.BYTES + Short.BYTES || offset + recordLength(offset) > dataLength) {
+        break;
+      }
+      int keyLength = dataMap.getInt((int) offset + Integer.BYTES);
+      int n = keyLength < 0 || keyLength > payloadLength ? -1 : Short.toUnsignedInt(dataMap.getShort((int) offset + 2 * Integer.BYTES + keyLength));
+      if (n < 0 || Integer.BYTES + keyLength + Short.BYTES + n * (1 + Long.BYTES) != payloadLength) {
+        break;
+      }
+      byte[] payload = new byte[payloadLength];
+      dataMap.get((int) offset + Integer.BYTES, payload);
+      if (crc(payload, 0, payloadLength) != dataMap.getInt((int) offset + Integer.BYTES + payloadLength)) {
+        break;
+      }
+      if (offsets != null) {
+        offsets.add(offset);
+      }
+      offset += recordLength(offset);
+    }
+    return offset;
+  }
+
+  // drops what follows the last valid record
+  private void truncateData(long end) throws IOException {
+    if (end < dataLength) {
+      Server.logMessage("Result store: dropping " + (dataLength - end) + " bytes of incomplete records", System.err);
+      data.truncate(end);
+      data.force(true);
+      dataLength = end;
+      dataMap = data.map(FileChannel.MapMode.READ_ONLY, 0, dataLength);
+    }
+  }
+
+  private void rebuildIndex(int newCapacity) throws IOException {
+    List<Long> offsets = new ArrayList<>();
+    truncateData(scan(DATA_HEADER_LENGTH, offsets));
+    while (2 * offsets.size() > newCapacity) {
+      newCapacity *= 2;
+    }
+    // the new index is built aside and then takes the place of the old one
+    Path tmp = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+    Files.deleteIfExists(tmp);
+    try (FileChannel index = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      indexMap = index.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER_LENGTH + (long) newCapacity * SLOT_LENGTH);
+    }
+    capacity = newCapacity;
+    count = 0;
+    indexMap.putInt(0, INDEX_MAGIC).putInt(4, capacity).putLong(8, generation);
+    for (long offset : offsets) {
+      insert(hash(readKey(offset)), offset);
+    }
+    indexMap.putInt(24, count).putLong(16, dataLength);
+    indexMap.force();
+    Files.move(tmp, indexPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  // keeps the newest records fitting in half the cap, in a new data file of a new generation. The data file only
+  // grows until the compaction replaces it, so the records are copied without the lock, which is only taken to copy
+  // the records appended meanwhile and to switch to the new file
+  private void compact() {
+    Path tmp = dataPath.resolveSibling(dataPath.getFileName() + ".tmp");
+    long end;
+    lock.readLock().lock();
+    try {
+      end = dataLength;
+    } finally {
+      lock.readLock().unlock();
+    }
+    try {
+      List<Long> offsets = new ArrayList<>();
+      for (long offset = DATA_HEADER_LENGTH; offset < end; offset += Integer.BYTES + bytesAt(offset, Integer.BYTES).getInt(0) + Integer.BYTES) {
+        offsets.add(offset);
+      }
+      offsets.add(end);
+      int first = offsets.size() - 1;
+      while (first > 0 && end - offsets.get(first - 1) <= maxBytes / 2) {
+        first--;
+      }
+
+      Files.deleteIfExists(tmp);
+      try (FileChannel compacted = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+        compacted.write(ByteBuffer.allocate(DATA_HEADER_LENGTH).putInt(DATA_MAGIC).putLong(generation + 1).flip());
+        transfer(offsets.get(first), end, compacted);
+
+        lock.writeLock().lock();
+        try {
+          if (!data.isOpen()) {
+            Files.delete(tmp);
+            return;
+          }
+          transfer(end, dataLength, compacted);
+          compacted.force(true);
+          data.close();
+          Files.move(tmp, dataPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+          Server.logMessage("Result store: compacted " + dataLength + " bytes to " + compacted.size(), System.out);
+          openData();
+          rebuildIndex(MIN_CAPACITY);
+        } finally {
+          lock.writeLock().unlock();
+        }
+      }
+    } catch (IOException e) {
+      Server.logMessage("Result store: compaction failed (" + e.getMessage() + ")", System.err);
+    } finally {
+      lock.writeLock().lock();
+      compaction = null;
+      lock.writeLock().unlock();
+    }
+  }
+
+  // the bytes of the data file from start to end at the position of target
+  private void transfer(long start, long end, FileChannel target) throws IOException {
+    for (long position = start; position < end; ) {
+      position += data.transferTo(position, end - position, target);
+    }
+  }
+
+  // the offset of the record with the given key, 0 if there is none
+  private long find(byte[] key, long hash) throws IOException {
+    for (int slot = (int) hash & (capacity - 1); ; slot = (slot + 1) & (capacity - 1)) {
+      int position = INDEX_HEADER_LENGTH + slot * SLOT_LENGTH;
+      long offset = indexMap.getLong(position + Long.BYTES);
+      if (offset == 0) {
+        return 0;
+      }
+      if (indexMap.getLong(position) == hash && offset + 2 * Integer.BYTES + key.length <= dataLength && keyEquals(offset, key)) {
+        return offset;
+      }
+    }
+  }
+
+  // the hash is written before the offset, a slot is never seen with the offset of a record and the wrong hash.
+  // The position of the slot in the index, the header is left to the caller
+  private int insert(long hash, long offset) {
+    int slot = (int) hash & (capacity - 1);
+    while (indexMap.getLong(INDEX_HEADER_LENGTH + slot * SLOT_LENGTH + Long.BYTES) != 0) {
+      slot = (slot + 1) & (capacity - 1);
+    }
+    indexMap.putLong(INDEX_HEADER_LENGTH + slot * SLOT_LENGTH, hash);
+    indexMap.putLong(INDEX_HEADER_LENGTH + slot * SLOT_LENGTH + Long.BYTES, offset);
+    count++;
+    return INDEX_HEADER_LENGTH + slot * SLOT_LENGTH;
+  }
+
+  // length bytes of the data file starting at offset, a view of the mapping when they are mapped, else read from the
+  // file, which is safe to do from several threads at once
+  private ByteBuffer bytesAt(long offset, int length) throws IOException {
+    if (offset + length <= dataMap.capacity()) {
+      return dataMap.slice((int) offset, length);
+    }
+    ByteBuffer buf = ByteBuffer.allocate(length);
+    while (buf.hasRemaining()) {
+      if (data.read(buf, offset + buf.position()) < 0) {
+        throw new EOFException("Record past the end of the data file");
+      }
+    }
+    return buf.flip();
+  }
+
+  // compares the key in place, without copying it out of the mapped file
+  private boolean keyEquals(long offset, byte[] key) throws IOException {
+    ByteBuffer stored = bytesAt(offset + Integer.BYTES, Integer.BYTES + key.length);
+    if (stored.getInt(0) != key.length) {
+      return false;
+    }
+    for (int i = 0; i < key.length; i++) {
+      if (stored.get(Integer.BYTES + i) != key[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private List<Number> readResults(long offset, int keyLength) throws IOException {
+    int n = Short.toUnsignedInt(bytesAt(offset + 2 * Integer.BYTES + keyLength, Short.BYTES).getShort(0));
+    ByteBuffer stored = bytesAt(offset + 2 * Integer.BYTES + keyLength + Short.BYTES, n * (1 + Long.BYTES));
+    List<Number> results = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      results.add(stored.get() == DOUBLE_TAG ? (Number) stored.getDouble() : (Number) stored.getLong());
+    }
+    return results;
+  }
+
+  private byte[] readKey(long offset) {
+    byte[] key = new byte[dataMap.getInt((int) offset + Integer.BYTES)];
+    dataMap.get((int) offset + 2 * Integer.BYTES, key);
+    return key;
+  }
+
+  private long recordLength(long offset) {
+    return Integer.BYTES + (long) dataMap.getInt((int) offset) + Integer.BYTES;
+  }
+
+  // the binary encoding of req, null when it cannot be encoded: a COUNT, or an AVG in the expressions after its first,
+  // with undeclared variables, which are never validated since they are never evaluated, or a request with more
+  // VariableValues or expressions than the encoding can count
+  static byte[] key(CompRequest req) {
+    ByteBuffer buf = ByteBuffer.allocate(1 << 8);
+    while (true) {
+      try {
+        BinaryCodec.encodeRequest(req, buf);
+        return Arrays.copyOf(buf.array(), buf.position());
+      } catch (BufferOverflowException e) {
+        buf = ByteBuffer.allocate(2 * buf.capacity());
+      } catch (IllegalArgumentException e) {
+        return null;
+      }
+    }
+  }
+
+  // 64 bit FNV-1a
+  private static long hash(byte[] key) {
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : key) {
+      hash = (hash ^ (b & 0xFF)) * 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  private static int crc(byte[] bytes, int offset, int length) {
+    CRC32 crc = new CRC32();
+    crc.update(bytes, offset, length);
+    return (int) crc.getValue();
+  }
+
+}
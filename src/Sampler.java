@@ -0,0 +1,150 @@
+import parsers.expression.Expression;
+import parsers.request.CompRequest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+// Estimates the approximate computations from a low discrepancy sample of their domain, see
+// CompRequest.ComputationKind. The i-th tuple of the sample of a GRID takes for its k-th variable the value at
+// the position given by the radical inverse of i in the k-th prime base, the i-th tuple of a LIST the one at the
+// position given by the radical inverse of i in base 2: every prefix of the sample is spread evenly over the domain,
+// so the sampling can stop as soon as the budget runs out.
+final class Sampler {
+
+  // the 97.5th percentile of the standard normal distribution
+  private static final double Z_95 = 1.96;
+  // the clock is read once every this many samples
+  private static final int TIME_CHECK_INTERVAL = 1 << 8;
+
+  private Sampler() {
+  }
+
+  // the number of tuples of the domain, Long.MAX_VALUE if larger, -1 when the values of a LIST differ in size
+  static long domainSize(CompRequest.ValuesKind valuesKind, List<CompRequest.VariableValue> variableValues) {
+    long size = numOfValues(variableValues.getFirst());
+    for (int k = 1; k < variableValues.size(); k++) {
+      switch (valuesKind) {
+        case GRID -> size = multiplySaturated(size, numOfValues(variableValues.get(k)));
+        case LIST -> {
+          if (numOfValues(variableValues.get(k)) != size) {
+            return -1;
+          }
+        }
+      }
+    }
+    return size;
+  }
+
+  // the number of values of a variable, start, start + step and so on up to its final value, which is always one of
+  // them, Long.MAX_VALUE if larger. The values are never enumerated, the sample picks them by their index
+  static long numOfValues(CompRequest.VariableValue v) {
+    double steps = Math.floor((v.finalVal() - v.startingVal()) / v.step());
+    if (steps >= Long.MAX_VALUE - 1) {
+      return Long.MAX_VALUE;
+    }
+    long n = (long) steps + 1;
+    return v.startingVal() + (n - 1) * v.step() < v.finalVal() ? n + 1 : n;
+  }
+
+  // the value of index j among the numOfValues of the variable
+  private static double valueAt(CompRequest.VariableValue v, long numOfValues, long j) {
+    return j >= numOfValues - 1 ? v.finalVal() : Math.min(v.startingVal() + j * v.step(), v.finalVal());
+  }
+
+  // the estimate, its bound and the number of samples evaluated
+  static List<Number> estimate(CompRequest req, int sampleBudget, long timeBudgetMillis) {
+
+    long deadline = System.nanoTime() + timeBudgetMillis * 1_000_000;
+    List<Function<Map<String, Double>, Double>> functions = req.kind() == CompRequest.ComputationKind.APPROX_AVG ?
+            List.of(req.expressions().getFirst().toRealVariableVectorFunction()) :
+            req.expressions().stream().map(Expression::toRealVariableVectorFunction).toList();
+    boolean isGrid = req.valuesKind() == CompRequest.ValuesKind.GRID;
+    List<CompRequest.VariableValue> variableValues = req.variableValues();
+    int[] bases = firstPrimes(variableValues.size());
+    long[] sizes = variableValues.stream().mapToLong(Sampler::numOfValues).toArray();
+
+    Map<String, Double> input = new HashMap<>();
+    double min = Double.POSITIVE_INFINITY;
+    double max = Double.NEGATIVE_INFINITY;
+    double mean = 0;
+    double m2 = 0;
+    int n = 0;
+    // the sequences start from 1, at 0 they all give the first tuple
+    for (long i = 1; n < sampleBudget; i++) {
+      if (n != 0 && n % TIME_CHECK_INTERVAL == 0 && System.nanoTime() > deadline) {
+        break;
+      }
+      double listPosition = isGrid ? 0 : radicalInverse(i, bases[0]);
+      for (int k = 0; k < variableValues.size(); k++) {
+        double u = isGrid ? radicalInverse(i, bases[k]) : listPosition;
+        input.put(variableValues.get(k).name(), valueAt(variableValues.get(k), sizes[k], Math.min((long) (u * sizes[k]), sizes[k] - 1)));
+      }
+      n++;
+      for (Function<Map<String, Double>, Double> f : functions) {
+        double value = f.apply(input);
+        if (min > value) {
+          min = value;
+        }
+        if (max < value) {
+          max = value;
+        }
+        double delta = value - mean;
+        mean += delta / n;
+        m2 += delta * (value - mean);
+      }
+    }
+
+    return switch (req.kind().exactKind()) {
+      case MIN -> List.of(min, tailBound(n), n);
+      case MAX -> List.of(max, tailBound(n), n);
+      default -> List.of(mean, n > 1 ? Z_95 * Math.sqrt(m2 / (n - 1) / n) : Double.POSITIVE_INFINITY, n);
+    };
+
+  }
+
+  // the fraction p of the domain beyond the extreme of n random samples such that (1 - p)^n = 5%
+  private static double tailBound(int n) {
+    return 1 - Math.pow(0.05, 1.0 / n);
+  }
+
+  // the digits of i in base b mirrored around the radix point
+  private static double radicalInverse(long i, int b) {
+    double result = 0;
+    double f = 1.0 / b;
+    while (i > 0) {
+      result += f * (i % b);
+      i /= b;
+      f /= b;
+    }
+    return result;
+  }
+
+  private static int[] firstPrimes(int n) {
+    List<Integer> primes = new ArrayList<>();
+    for (int candidate = 2; primes.size() < n; candidate++) {
+      boolean isPrime = true;
+      for (int p : primes) {
+        if (p * p > candidate) {
+          break;
+        }
+        if (candidate % p == 0) {
+          isPrime = false;
+          break;
+        }
+      }
+      if (isPrime) {
+        primes.add(candidate);
+      }
+    }
+    return primes.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  private static long multiplySaturated(long a, long b) {
+    long high = Math.multiplyHigh(a, b);
+    return high != 0 || a * b < 0 ? Long.MAX_VALUE : a * b;
+  }
+
+}
@@ -1,12 +1,21 @@
 import java.io.IOException;
 import java.io.PrintStream;
 import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Server {
 
   public static final String QUIT_CMD = "BYE";
+  public static final long PROGRESS_INTERVAL_MILLIS = 1000;
+  private static final String USAGE = "Usage: java Server <port> [--workers <host>:<port>,...] [--approx-samples <n>] [--approx-millis <ms>] [--store <dir>] [--store-max-mb <n>] [--warmup builtin|<request file>] [--warmup-millis <ms>] [--capture <file>] [--max-connections <n>] [--max-request-bytes <n>] [--idle-timeout-millis <ms>] [--read-timeout-millis <ms>] [--write-timeout-millis <ms>] [--max-prepared <n>] [--max-global-prepared <n>] [--log-requests on|off]";
 
   private static long numOfOkResps = 0;
   private static long avgRespTimeInMillis = 0;
@@ -15,35 +24,221 @@ public class Server {
   protected static final ExecutorService STAT_REQS_EXECUTOR = Executors.newCachedThreadPool();
   protected static final ExecutorService COMP_REQS_EXECUTOR = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
 
+  // set when the server is started with --workers, the GRID computations are then split among the workers
+  private static Coordinator coordinator = null;
+  // budgets of the approximate computations, the sample one can be lowered or raised by every request
+  private static int approxSampleBudget = 1 << 16;
+  private static long approxTimeBudgetMillis = 250;
+  // set when the server is started with --store, the computation results are then kept on disk across restarts
+  private static ResultStore resultStore = null;
+  private static String resultStoreDir = null;
+  private static long resultStoreMaxBytes = 256L << 20;
+  // set when the server is started with --capture, the text requests and their responses are then recorded
+  private static TrafficRecorder trafficRecorder = null;
+  // limits of the connections, a connection over the maximum is refused, one going over any of the others is closed
+  private static int maxConnections = 1024;
+  private static int maxRequestBytes = 1 << 20;
+  private static int idleTimeoutMillis = 300_000;
+  private static int readTimeoutMillis = 30_000;
+  private static int writeTimeoutMillis = 30_000;
+  private static final Set<ClientHandler> CONNECTIONS = ConcurrentHashMap.newKeySet();
+  // every request and response is logged unless turned off, which spares formatting a message for each of them
+  private static boolean logRequests = true;
+  // handles of the expressions prepared by each connection and by all of them, see HandleRegistry
+  private static int maxPrepared = 64;
+  private static HandleRegistry globalHandles = new HandleRegistry(1024);
+  // how many times each limit was hit
+  private static final AtomicLong rejectedConns = new AtomicLong();
+  private static final AtomicLong idleTimeouts = new AtomicLong();
+  private static final AtomicLong readTimeouts = new AtomicLong();
+  private static final AtomicLong writeTimeouts = new AtomicLong();
+  private static final AtomicLong oversizedReqs = new AtomicLong();
+  // computation requests answered by joining an identical one already in progress
+  private static final AtomicLong coalescedReqs = new AtomicLong();
+  private static final ScheduledExecutorService WRITE_WATCHDOG = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread t = new Thread(r, "write-watchdog");
+    t.setDaemon(true);
+    return t;
+  });
+
 
   public static void main(String... args) {
 
     logMessage("Starting server", System.out);
 
-    if (args.length == 1) {
+    if (args.length >= 1) {
 
+      Coordinator workers = null;
+      String warmUpWorkload = null;
+      long warmUpBudgetMillis = 30_000;
+      String captureFile = null;
       try {
         Integer.parseInt(args[0]);
+        for (int i = 1; i < args.length; i += 2) {
+          if (i + 1 == args.length) {
+            throw new IllegalArgumentException("Missing value for option " + args[i]);
+          }
+          switch (args[i]) {
+            case "--workers" -> workers = Coordinator.fromAddresses(args[i + 1]);
+            case "--approx-samples" -> approxSampleBudget = positiveOption(args[i], args[i + 1]);
+            case "--approx-millis" -> approxTimeBudgetMillis = positiveOption(args[i], args[i + 1]);
+            case "--store" -> resultStoreDir = args[i + 1];
+            case "--store-max-mb" -> resultStoreMaxBytes = (long) positiveOption(args[i], args[i + 1]) << 20;
+            case "--warmup" -> warmUpWorkload = args[i + 1];
+            case "--warmup-millis" -> warmUpBudgetMillis = positiveOption(args[i], args[i + 1]);
+            case "--capture" -> captureFile = args[i + 1];
+            case "--max-connections" -> maxConnections = positiveOption(args[i], args[i + 1]);
+            case "--max-request-bytes" -> maxRequestBytes = positiveOption(args[i], args[i + 1]);
+            case "--idle-timeout-millis" -> idleTimeoutMillis = positiveOption(args[i], args[i + 1]);
+            case "--read-timeout-millis" -> readTimeoutMillis = positiveOption(args[i], args[i + 1]);
+            case "--write-timeout-millis" -> writeTimeoutMillis = positiveOption(args[i], args[i + 1]);
+            case "--max-prepared" -> maxPrepared = positiveOption(args[i], args[i + 1]);
+            case "--max-global-prepared" -> globalHandles = new HandleRegistry(positiveOption(args[i], args[i + 1]));
+            case "--log-requests" -> logRequests = switch (args[i + 1]) {
+              case "on" -> true;
+              case "off" -> false;
+              default -> throw new IllegalArgumentException("Invalid value for option " + args[i]);
+            };
+            default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+          }
+        }
       } catch (NumberFormatException e) {
         System.err.println("Invalid port number");
-        System.out.println("Usage: java Server <port>");
+        System.out.println(USAGE);
+        System.exit(1);
+      } catch (IllegalArgumentException e) {
+        System.err.println(e.getMessage());
+        System.out.println(USAGE);
         System.exit(1);
       }
 
-      while (true) {
-        try (ServerSocket serverSocket = new ServerSocket(Integer.parseInt(args[0]))) {
-          new ClientHandler(serverSocket.accept()).start();
+      // before the workers and the result store are set up, the synthetic requests must not reach them
+      if (warmUpWorkload != null) {
+        warmUp(warmUpWorkload, warmUpBudgetMillis);
+      }
+
+      coordinator = workers;
+      if (coordinator != null) {
+        logMessage("Splitting GRID computations among workers " + coordinator.workers(), System.out);
+      }
+
+      // the index is mapped and brought in memory before the first request can look it up
+      if (resultStoreDir != null) {
+        long startTime = System.currentTimeMillis();
+        try {
+          resultStore = ResultStore.open(Path.of(resultStoreDir), resultStoreMaxBytes);
+          resultStore.load();
+          logMessage("Result store: " + resultStore.size() + " results in " + resultStore.sizeInBytes() + " bytes loaded in " + (System.currentTimeMillis() - startTime) + " ms", System.out);
         } catch (IOException e) {
-          logMessage(e.getMessage(), System.err);
+          logMessage("Result store disabled: " + e.getMessage(), System.err);
         }
       }
 
+      if (captureFile != null) {
+        try {
+          trafficRecorder = new TrafficRecorder(Path.of(captureFile));
+          logMessage("Capturing the traffic to " + captureFile, System.out);
+        } catch (IOException e) {
+          logMessage("Traffic capture disabled: " + e.getMessage(), System.err);
+        }
+      }
+
+      long watchdogPeriodMillis = Math.max(1, Math.min(1000, writeTimeoutMillis / 4));
+      WRITE_WATCHDOG.scheduleWithFixedDelay(Server::closeStalledConnections, watchdogPeriodMillis, watchdogPeriodMillis, TimeUnit.MILLISECONDS);
+
+      // a single listening socket for the whole life of the server, closing it would reset the pending connections
+      try (ServerSocket serverSocket = new ServerSocket(Integer.parseInt(args[0]))) {
+        while (true) {
+          try {
+            Socket socket = serverSocket.accept();
+            if (CONNECTIONS.size() >= maxConnections) {
+              rejectConnection(socket);
+              continue;
+            }
+            ClientHandler handler = new ClientHandler(socket);
+            CONNECTIONS.add(handler);
+            handler.start();
+          } catch (IOException e) {
+            logMessage(e.getMessage(), System.err);
+          }
+        }
+      } catch (IOException e) {
+        logMessage(e.getMessage(), System.err);
+      }
+
     }
 
     logMessage("Server shutting down", System.out);
 
   }
 
+  // the client is told why before the connection is closed, without a thread being started for it. The few bytes of
+  // the response fit in the send buffer of a new socket, so the write does not block the accepting thread
+  private static void rejectConnection(Socket socket) {
+    rejectedConns.incrementAndGet();
+    logMessage("Error : Too many connections, refused " + socket.getInetAddress(), System.err);
+    try (socket) {
+      ResponseWriter out = new ResponseWriter(socket.getOutputStream());
+      out.writeError("Too many connections");
+      out.flush();
+      socket.shutdownOutput();
+    } catch (IOException e) {
+      logMessage(e.getMessage(), System.err);
+    }
+  }
+
+  private static void closeStalledConnections() {
+    long now = System.nanoTime();
+    for (ClientHandler handler : CONNECTIONS) {
+      if (handler.closeIfWriteStalled(now, TimeUnit.MILLISECONDS.toNanos(writeTimeoutMillis))) {
+        writeTimeouts.incrementAndGet();
+      }
+    }
+  }
+
+  protected static void connectionClosed(ClientHandler handler) {
+    CONNECTIONS.remove(handler);
+  }
+
+  private static void warmUp(String workload, long budgetMillis) {
+    WarmUp warmUp;
+    try {
+      warmUp = workload.equals("builtin") ? WarmUp.builtin() : WarmUp.fromFile(Path.of(workload));
+    } catch (IOException e) {
+      logMessage("Warm-up skipped: " + e, System.err);
+      return;
+    }
+    logMessage("Warming up", System.out);
+    WarmUp.Report report;
+    try {
+      report = warmUp.run(budgetMillis);
+    } catch (IOException e) {
+      logMessage("Warm-up stopped: " + e, System.err);
+      return;
+    } finally {
+      // the clients are not to see the requests of the warm-up in the statistics
+      numOfOkResps = 0;
+      avgRespTimeInMillis = 0;
+      maxRespTimeInMillis = 0;
+    }
+    logMessage(String.format("Warm-up finished: %d requests (%d failed) in %d rounds, %d ms, %.1f us per request in the first round and %.1f in the last, ",
+            report.requests(), report.failures(), report.rounds(), report.elapsedMillis(), report.firstRoundMicrosPerRequest(), report.lastRoundMicrosPerRequest()) +
+            (!report.compilationMonitored() ? "compilation time not available" :
+                    report.compilationMillis() + " ms spent compiling, " + (report.steady() ? "compiled code steady state reached" : "steady state NOT reached")), System.out);
+  }
+
+  private static int positiveOption(String option, String value) {
+    try {
+      int result = Integer.parseInt(value);
+      if (result > 0) {
+        return result;
+      }
+    } catch (NumberFormatException e) {
+      // reported below
+    }
+    throw new IllegalArgumentException("Invalid value for option " + option);
+  }
+
   public static void logMessage(String msg, PrintStream out) {
     out.println(msg);
   }
@@ -60,6 +255,78 @@ public class Server {
 
   }
 
+  protected static Coordinator coordinator() {
+    return coordinator;
+  }
+
+  protected static TrafficRecorder trafficRecorder() {
+    return trafficRecorder;
+  }
+
+  protected static ResultStore resultStore() {
+    return resultStore;
+  }
+
+  protected static boolean logRequests() {
+    return logRequests;
+  }
+
+  protected static int maxPrepared() {
+    return maxPrepared;
+  }
+
+  protected static HandleRegistry globalHandles() {
+    return globalHandles;
+  }
+
+  protected static int maxRequestBytes() {
+    return maxRequestBytes;
+  }
+
+  protected static int idleTimeoutMillis() {
+    return idleTimeoutMillis;
+  }
+
+  protected static int readTimeoutMillis() {
+    return readTimeoutMillis;
+  }
+
+  protected static int numOfConnections() {
+    return CONNECTIONS.size();
+  }
+
+  protected static AtomicLong rejectedConns() {
+    return rejectedConns;
+  }
+
+  protected static AtomicLong idleTimeouts() {
+    return idleTimeouts;
+  }
+
+  protected static AtomicLong readTimeouts() {
+    return readTimeouts;
+  }
+
+  protected static AtomicLong writeTimeouts() {
+    return writeTimeouts;
+  }
+
+  protected static AtomicLong oversizedReqs() {
+    return oversizedReqs;
+  }
+
+  protected static AtomicLong coalescedReqs() {
+    return coalescedReqs;
+  }
+
+  protected static int approxSampleBudget() {
+    return approxSampleBudget;
+  }
+
+  protected static long approxTimeBudgetMillis() {
+    return approxTimeBudgetMillis;
+  }
+
   public static long numOfOkResps() {
     return numOfOkResps;
   }
@@ -0,0 +1,93 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Writes every request of the text protocol received by the server, with its response, to a capture file that
+// tools.Replayer can send again to another server. All multi-byte values are big-endian.
+//
+//  file     : int MAGIC | long captureStartInEpochMillis | records
+//  record   : long receivedNanos | int connectionId | long latencyNanos | int requestLength | request (UTF-8) |
+//             int responseLength | response (UTF-8)
+//
+// receivedNanos counts from the start of the capture, latencyNanos is the time the server took from reading the
+// request to writing its response. The response is the whole line sent back, empty for BYE, which closes the
+// connection. The records of different connections are interleaved in the order their responses were written.
+class TrafficRecorder {
+
+  static final int MAGIC = 0x50435031;
+  private static final long FLUSH_INTERVAL_MILLIS = 1000;
+
+  private final DataOutputStream out;
+  private final long startNanos = System.nanoTime();
+  private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread t = new Thread(r, "capture-flusher");
+    t.setDaemon(true);
+    return t;
+  });
+  private boolean failed = false;
+
+  TrafficRecorder(Path file) throws IOException {
+    out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+    out.writeInt(MAGIC);
+    out.writeLong(System.currentTimeMillis());
+    // the records are written in batches, so that a request is never held back by a write to the disk
+    flusher.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+  }
+
+  // receivedNanos is the System.nanoTime() at which the request was read
+  synchronized void record(int connectionId, long receivedNanos, String request, String response) {
+    if (failed) {
+      return;
+    }
+    try {
+      out.writeLong(receivedNanos - startNanos);
+      out.writeInt(connectionId);
+      out.writeLong(System.nanoTime() - receivedNanos);
+      writeString(request);
+      writeString(response);
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  synchronized void flush() {
+    if (failed) {
+      return;
+    }
+    try {
+      out.flush();
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  synchronized void close() {
+    flush();
+    try {
+      out.close();
+    } catch (IOException e) {
+      // nothing more can be written anyway
+    }
+    failed = true;
+  }
+
+  private void writeString(String s) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  // the capture stops at the first error, the server keeps serving its clients
+  private void fail(IOException e) {
+    failed = true;
+    Server.logMessage("Traffic capture stopped: " + e.getMessage(), System.err);
+  }
+
+}
@@ -0,0 +1,250 @@
+import parsers.request.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// Runs a synthetic workload through the whole path of a request before the server accepts connections, so that the
+// first clients do not pay for the interpreter and the first tiers of the JIT. Every request is sent to a ClientHandler
+// over a loopback connection of each protocol, which goes through the reading of the request, parsing, domain
+// generation, every ComputationKind, the encoding of the response and the writes to the socket. The workload is run
+// in rounds until the JIT spends almost none of a round compiling, as reported by the CompilationMXBean, or until the
+// time budget runs out.
+// The caller runs the warm-up before the result store and the workers are set up, so that neither sees the requests,
+// and resets the statistics they went into afterwards.
+class WarmUp {
+
+  private static final int BUILTIN_REQUESTS = 500;
+  // a round is steady when less than this fraction of it is spent compiling, the warm-up ends after STEADY_ROUNDS
+  // steady rounds in a row
+  private static final double STEADY_COMPILATION_FRACTION = 0.01;
+  private static final int STEADY_ROUNDS = 3;
+  // the compilation time is measured in milliseconds, a round goes over the workload as many times as it takes to
+  // last at least this long
+  private static final long MIN_ROUND_NANOS = 200_000_000;
+
+  private final List<String> workload;
+
+  WarmUp(List<String> workload) {
+    this.workload = workload;
+  }
+
+  // the requests of a file in the text protocol, one per line
+  static WarmUp fromFile(Path file) throws IOException {
+    // a BYE would close the connection the rest of the workload is sent on
+    List<String> workload = Files.readAllLines(file).stream().map(String::trim).filter(line -> !line.isEmpty() && !line.equals(Server.QUIT_CMD)).toList();
+    if (workload.isEmpty()) {
+      throw new IOException("No requests in " + file);
+    }
+    return new WarmUp(workload);
+  }
+
+  // requests of every kind over small random domains, with a few malformed ones for the error paths
+  static WarmUp builtin() {
+    Random random = new Random(0);
+    List<String> workload = new ArrayList<>();
+    String[] kinds = {"MAX", "MIN", "AVG", "COUNT", "MULTI[MIN,MAX,AVG,COUNT,VAR,ARGMIN,ARGMAX]", "APPROX_AVG[64]", "APPROX_MIN[64]", "APPROX_MAX", "APPROX_AVG"};
+    for (int i = 0; i < BUILTIN_REQUESTS; i++) {
+      String request = computationRequest(random, kinds[i % kinds.length]);
+      workload.add(switch (i % 25) {
+        case 5 -> "BATCH;" + request + "|" + computationRequest(random, kinds[random.nextInt(kinds.length)]);
+        case 10 -> "STREAM;" + request;
+        case 15 -> "STAT_REQS";
+        case 20 -> request.substring(0, random.nextInt(request.length()));
+        default -> request;
+      });
+    }
+    return new WarmUp(workload);
+  }
+
+  private static String computationRequest(Random random, String kind) {
+    boolean isGrid = random.nextBoolean();
+    int numOfVars = 1 + random.nextInt(3);
+    // the steps are powers of two, so the number of values of a variable is exactly numOfValues
+    int numOfValues = isGrid ? 2 + random.nextInt(19) : 2 + random.nextInt(500);
+    StringBuilder request = new StringBuilder(kind).append(isGrid ? "_GRID;" : "_LIST;");
+    for (int v = 0; v < numOfVars; v++) {
+      int start = random.nextInt(10);
+      double step = 1.0 / (1 << random.nextInt(3));
+      request.append(v == 0 ? "" : ",").append('x').append(v).append(':').append(start).append(':').append(step).append(':').append(start + step * (numOfValues - 1));
+    }
+    request.append(';').append(expression(random, numOfVars, 3));
+    if (random.nextBoolean()) {
+      request.append(';').append(expression(random, numOfVars, 2));
+    }
+    return request.toString();
+  }
+
+  private static String expression(Random random, int numOfVars, int depth) {
+    if (depth == 0 || random.nextInt(4) == 0) {
+      return random.nextBoolean() ? "x" + random.nextInt(numOfVars) : random.nextInt(5) + "." + random.nextInt(10);
+    }
+    return "(" + expression(random, numOfVars, depth - 1) + "+-*/^".charAt(random.nextInt(5)) + expression(random, numOfVars, depth - 1) + ")";
+  }
+
+  record Report(int rounds, long requests, long failures, long elapsedMillis, long compilationMillis, boolean compilationMonitored, boolean steady,
+                double firstRoundMicrosPerRequest, double lastRoundMicrosPerRequest) {
+  }
+
+  // the requests are counted once for each protocol they are sent with, the failures are the ERR responses
+  Report run(long budgetMillis) throws IOException {
+
+    CompilationMXBean jit = ManagementFactory.getCompilationMXBean();
+    boolean compilationMonitored = jit != null && jit.isCompilationTimeMonitoringSupported();
+    long startTime = System.nanoTime();
+    long deadline = startTime + budgetMillis * 1_000_000;
+    long startCompilationMillis = compilationMonitored ? jit.getTotalCompilationTime() : 0;
+
+    // encoded once, the client side is not what is warmed up. A request that cannot be parsed or encoded is only sent
+    // as text, where its error is what is warmed up
+    List<byte[]> lines = new ArrayList<>();
+    List<byte[]> frames = new ArrayList<>();
+    ByteBuffer buf = ByteBuffer.allocate(BinaryCodec.MAX_FRAME_LENGTH);
+    for (String line : workload) {
+      lines.add((line + "\n").getBytes(StandardCharsets.UTF_8));
+      try {
+        BinaryCodec.encodeRequest(new RequestParser(new Request(line)).parse(), buf.clear());
+        frames.add(Arrays.copyOf(buf.array(), buf.position()));
+      } catch (Exception e) {
+        frames.add(null);
+      }
+    }
+
+    int rounds = 0;
+    long requests = 0;
+    long failures = 0;
+    int steadyRounds = 0;
+    double firstRoundMicrosPerRequest = Double.NaN;
+    double lastRoundMicrosPerRequest = Double.NaN;
+    try (ServerSocket listener = new ServerSocket(0, 2, InetAddress.getLoopbackAddress());
+         Connection text = new Connection(listener, false);
+         Connection binary = new Connection(listener, true)) {
+      while (steadyRounds < STEADY_ROUNDS && System.nanoTime() < deadline) {
+
+        long roundStartTime = System.nanoTime();
+        long roundStartCompilationMillis = compilationMonitored ? jit.getTotalCompilationTime() : 0;
+        int roundRequests = 0;
+        do {
+          for (int i = 0; i < lines.size(); i++) {
+            if (!text.exchange(lines.get(i))) {
+              failures++;
+            }
+            roundRequests++;
+            if (frames.get(i) != null) {
+              if (!binary.exchange(frames.get(i))) {
+                failures++;
+              }
+              roundRequests++;
+            }
+            if (System.nanoTime() >= deadline) {
+              break;
+            }
+          }
+        } while (System.nanoTime() - roundStartTime < MIN_ROUND_NANOS && System.nanoTime() < deadline);
+        long roundNanos = System.nanoTime() - roundStartTime;
+
+        rounds++;
+        requests += roundRequests;
+        lastRoundMicrosPerRequest = roundNanos / 1000.0 / roundRequests;
+        if (rounds == 1) {
+          firstRoundMicrosPerRequest = lastRoundMicrosPerRequest;
+        }
+        if (compilationMonitored && jit.getTotalCompilationTime() - roundStartCompilationMillis <= STEADY_COMPILATION_FRACTION * roundNanos / 1_000_000) {
+          steadyRounds++;
+        } else {
+          steadyRounds = 0;
+        }
+
+      }
+    }
+
+    return new Report(rounds, requests, failures, (System.nanoTime() - startTime) / 1_000_000,
+            compilationMonitored ? jit.getTotalCompilationTime() - startCompilationMillis : 0, compilationMonitored,
+            steadyRounds == STEADY_ROUNDS, firstRoundMicrosPerRequest, lastRoundMicrosPerRequest);
+
+  }
+
+  // a client of the warm-up and the ClientHandler serving it, which logs nothing
+  private static class Connection implements AutoCloseable {
+
+    private final Socket socket;
+    private final ClientHandler handler;
+    private final boolean binary;
+    private final OutputStream out;
+    private final DataInputStream frameIn;
+    private final BufferedReader lineIn;
+
+    Connection(ServerSocket listener, boolean binary) throws IOException {
+      this.socket = new Socket(listener.getInetAddress(), listener.getLocalPort());
+      this.handler = new ClientHandler(listener.accept(), false);
+      this.binary = binary;
+      handler.start();
+      out = socket.getOutputStream();
+      frameIn = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      lineIn = new BufferedReader(new InputStreamReader(frameIn, StandardCharsets.UTF_8));
+      if (binary) {
+        out.write(BinaryCodec.HANDSHAKE);
+        out.flush();
+        if (frameIn.readByte() != BinaryCodec.HANDSHAKE) {
+          throw new IOException("Binary protocol not acknowledged");
+        }
+      }
+    }
+
+    // sends a request, a line or a frame, and waits for its response, false if it is an error
+    boolean exchange(byte[] request) throws IOException {
+      out.write(request);
+      out.flush();
+      if (binary) {
+        while (true) {
+          int length = frameIn.readInt();
+          byte type = frameIn.readByte();
+          frameIn.skipNBytes(length - 1);
+          if (type != BinaryCodec.PROGRESS) {
+            return type == BinaryCodec.OK;
+          }
+        }
+      }
+      String response;
+      do {
+        response = lineIn.readLine();
+      } while (response != null && response.startsWith("PROGRESS;"));
+      if (response == null) {
+        throw new EOFException("Warm-up connection closed");
+      }
+      return response.startsWith("OK;");
+    }
+
+    // the handler is done once it has seen the end of the requests
+    @Override
+    public void close() throws IOException {
+      socket.shutdownOutput();
+      try {
+        handler.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        socket.close();
+      }
+    }
+
+  }
+
+}
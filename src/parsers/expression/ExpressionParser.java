@@ -48,6 +48,9 @@ public class ExpressionParser {
     if(this.string.isEmpty()){
       throw new IllegalArgumentException("Expression is empty");
     }
+    if(cursor == string.length()){
+      throw new IllegalArgumentException("Unexpected end of the expression");
+    }
     Token token;
     token = TokenType.CONSTANT.next(string, cursor);
     if (token != null && token.start == cursor) {
@@ -67,6 +70,9 @@ public class ExpressionParser {
       if (operatorToken != null && operatorToken.start == cursor) {
         cursor = operatorToken.end;
       } else {
+        if(cursor == string.length()){
+          throw new IllegalArgumentException("Missing an operator at the end of the expression");
+        }
         throw new IllegalArgumentException(String.format(
                 "Unexpected char at %d instead of operator: '%s'",
                 cursor,
@@ -0,0 +1,166 @@
+package parsers.expression;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.DoubleBinaryOperator;
+
+// Proves in which variables an expression never decreases, or never increases, over a box of variable ranges, from
+// the monotonicity of each operator in each of its operands given the ranges of the operands. The floating point
+// + - * / round monotonically and Math.pow is semi-monotonic, so what holds of the real operators holds of their
+// evaluation too, and the ranges computed with the same operations are the exact bounds of the evaluated values.
+public final class Monotonicity {
+
+    public enum Direction {
+        CONSTANT,
+        INCREASING,
+        DECREASING,
+        NONE;
+
+        // the direction of the sum of an expression going this way and one going the other way
+        public Direction and(Direction other) {
+            if (this == CONSTANT || this == other) {
+                return other;
+            }
+            return other == CONSTANT ? this : NONE;
+        }
+
+        private Direction times(int sign) {
+            if (this == CONSTANT || this == NONE) {
+                return this;
+            }
+            if (sign == 0) {
+                return NONE;
+            }
+            return sign > 0 ? this : this == INCREASING ? DECREASING : INCREASING;
+        }
+    }
+
+    // the bounds of the values of a subexpression, whether one of them may be -0.0, and its direction in each of the
+    // variables it depends on
+    private record Analysis(double lo, double hi, boolean mayBeNegativeZero, Map<String, Direction> directions) {
+
+        Direction direction(String variable) {
+            return directions.getOrDefault(variable, Direction.CONSTANT);
+        }
+
+        boolean isConstant() {
+            return lo == hi && directions.values().stream().allMatch(d -> d == Direction.CONSTANT);
+        }
+    }
+
+    private Monotonicity() {
+    }
+
+    // the direction of the expression in each of its variables given the [start, end] range of each, null when the
+    // expression may not be finite over the ranges, or may evaluate to -0.0, which compares equal to 0.0 while
+    // printing differently
+    public static Map<String, Direction> of(Node root, Map<String, double[]> ranges) {
+        Analysis analysis = analyze(root, ranges);
+        return analysis == null || analysis.mayBeNegativeZero() ? null : analysis.directions();
+    }
+
+    private static Analysis analyze(Node root, Map<String, double[]> ranges) {
+        if (root instanceof Constant constant) {
+            return new Analysis(constant.value(), constant.value(), isNegativeZero(constant.value()), Map.of());
+        }
+        if (root instanceof Variable variable) {
+            double[] range = ranges.get(variable.name());
+            if (range == null) {
+                return null;
+            }
+            return finite(range[0], range[1], isNegativeZero(range[0]) || isNegativeZero(range[1]), Map.of(variable.name(), Direction.INCREASING));
+        }
+        Operator operator = (Operator) root;
+        Analysis a = analyze(operator.children().getFirst(), ranges);
+        Analysis b = a == null ? null : analyze(operator.children().getLast(), ranges);
+        if (b == null) {
+            return null;
+        }
+        boolean mayBeNegative = a.lo() < 0 || a.mayBeNegativeZero() || b.lo() < 0 || b.mayBeNegativeZero();
+        return switch (operator.type()) {
+            // x + y is -0.0 only when both are, x - y only when x is -0.0 and y is 0.0
+            case SUM -> finite(a.lo() + b.lo(), a.hi() + b.hi(), a.mayBeNegativeZero() && b.mayBeNegativeZero(), combine(a, 1, b, 1));
+            case SUBTRACTION -> finite(a.lo() - b.hi(), a.hi() - b.lo(), a.mayBeNegativeZero() && b.lo() <= 0 && b.hi() >= 0, combine(a, 1, b, -1));
+            case MULTIPLICATION -> corners(a, b, (x, y) -> x * y, mayBeNegative, combine(a, sign(b), b, sign(a)));
+            case DIVISION -> b.lo() > 0 || b.hi() < 0 ?
+                    corners(a, b, (x, y) -> x / y, mayBeNegative, combine(a, sign(b), b, -sign(a))) :
+                    null;
+            case POWER -> power(a, b);
+        };
+    }
+
+    private static Analysis power(Analysis a, Analysis b) {
+        boolean mayBeNegative = a.lo() < 0 || a.mayBeNegativeZero();
+        if (b.isConstant()) {
+            double c = b.lo();
+            if (c == 0) {
+                return new Analysis(1, 1, false, Map.of());
+            }
+            if (a.lo() > 0 || a.lo() >= 0 && c > 0) {
+                return corners(a, b, Math::pow, mayBeNegative, combine(a, c > 0 ? 1 : -1, b, 0));
+            }
+            if (c != Math.rint(c)) {
+                return null;
+            }
+            boolean odd = Math.abs(c % 2) == 1;
+            // x^c with x < 0 goes the way of |x|^c for an even c, the opposite way for an odd one
+            if (a.hi() < 0 || a.hi() <= 0 && c > 0) {
+                return corners(a, b, Math::pow, mayBeNegative, combine(a, (odd ? 1 : -1) * (c > 0 ? 1 : -1), b, 0));
+            }
+            if (c < 0) {
+                return null;
+            }
+            // x^c over a range around 0
+            return odd ?
+                    corners(a, b, Math::pow, mayBeNegative, combine(a, 1, b, 0)) :
+                    finite(0, Math.max(Math.pow(a.lo(), c), Math.pow(a.hi(), c)), false, combine(a, 0, b, 0));
+        }
+        if (a.lo() > 0) {
+            int directionInBase = b.lo() >= 0 ? 1 : b.hi() <= 0 ? -1 : 0;
+            int directionInExponent = a.lo() >= 1 ? 1 : a.hi() <= 1 ? -1 : 0;
+            return corners(a, b, Math::pow, false, combine(a, directionInBase, b, directionInExponent));
+        }
+        return null;
+    }
+
+    // the direction of an operation going the way of a times signA and of b times signB, a sign of 0 when unknown
+    private static Map<String, Direction> combine(Analysis a, int signA, Analysis b, int signB) {
+        Set<String> variables = new HashSet<>(a.directions().keySet());
+        variables.addAll(b.directions().keySet());
+        Map<String, Direction> directions = new HashMap<>();
+        for (String variable : variables) {
+            directions.put(variable, a.direction(variable).times(signA).and(b.direction(variable).times(signB)));
+        }
+        return directions;
+    }
+
+    // 1 when never negative, -1 when never positive, 0 otherwise
+    private static int sign(Analysis a) {
+        return a.lo() >= 0 ? 1 : a.hi() <= 0 ? -1 : 0;
+    }
+
+    // the bounds of an operation that is monotone in each operand over the ranges, which are reached at their corners.
+    // A result that can be 0 can be -0.0 when an operand can be negative
+    private static Analysis corners(Analysis a, Analysis b, DoubleBinaryOperator op, boolean mayBeNegative, Map<String, Direction> directions) {
+        double[] values = {op.applyAsDouble(a.lo(), b.lo()), op.applyAsDouble(a.lo(), b.hi()), op.applyAsDouble(a.hi(), b.lo()), op.applyAsDouble(a.hi(), b.hi())};
+        double lo = Double.POSITIVE_INFINITY;
+        double hi = Double.NEGATIVE_INFINITY;
+        for (double v : values) {
+            lo = Math.min(lo, v);
+            hi = Math.max(hi, v);
+        }
+        return finite(lo, hi, mayBeNegative && lo <= 0 && hi >= 0, directions);
+    }
+
+    // null when the bounds are not finite, NaN included
+    private static Analysis finite(double lo, double hi, boolean mayBeNegativeZero, Map<String, Direction> directions) {
+        return Double.isFinite(lo) && Double.isFinite(hi) ? new Analysis(lo, hi, mayBeNegativeZero, directions) : null;
+    }
+
+    private static boolean isNegativeZero(double d) {
+        return Double.doubleToRawLongBits(d) == Double.doubleToRawLongBits(-0.0);
+    }
+
+}
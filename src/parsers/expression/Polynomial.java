@@ -0,0 +1,167 @@
+package parsers.expression;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+// A sparse multivariate polynomial, the coefficients by monomial, a monomial being the exponents by variable name
+public final class Polynomial {
+
+    // beyond these the expansion costs more than it saves, the expression is then not treated as a polynomial
+    private static final int MAX_TERMS = 1 << 12;
+    private static final int MAX_DEGREE = 1 << 8;
+    // the mean is trusted when the cancellation between its terms loses at most this many bits
+    private static final int MAX_CANCELLED_BITS = 26;
+
+    private final Map<Map<String, Integer>, Double> terms;
+
+    private Polynomial(Map<Map<String, Integer>, Double> terms) {
+        this.terms = terms;
+    }
+
+    // the expansion of the expression, null when it is not a polynomial: only + - * and ^ with a non negative
+    // integer constant exponent, / only by a non zero constant
+    public static Polynomial of(Node root) {
+        if (root instanceof Constant constant) {
+            return constant(constant.value());
+        }
+        if (root instanceof Variable variable) {
+            return new Polynomial(Map.of(Map.of(variable.name(), 1), 1.0));
+        }
+        Operator operator = (Operator) root;
+        Polynomial left = of(operator.children().getFirst());
+        Polynomial right = left == null ? null : of(operator.children().getLast());
+        if (right == null) {
+            return null;
+        }
+        return switch (operator.type()) {
+            case SUM -> left.plus(right, 1);
+            case SUBTRACTION -> left.plus(right, -1);
+            case MULTIPLICATION -> left.times(right);
+            case DIVISION -> right.isConstant() && right.constantValue() != 0 ? left.times(constant(1 / right.constantValue())) : null;
+            case POWER -> {
+                if (!right.isConstant()) {
+                    yield null;
+                }
+                double exponent = right.constantValue();
+                yield exponent >= 0 && exponent <= MAX_DEGREE && exponent == Math.rint(exponent) ? left.power((int) exponent) : null;
+            }
+        };
+    }
+
+    public Map<Map<String, Integer>, Double> terms() {
+        return terms;
+    }
+
+    // the mean over every tuple of the cartesian product of the values of the variables, which is the sum over the
+    // monomials of their coefficient times the mean of each power over the values of its variable. Null when the
+    // terms cancel out too much for the result to be accurate, or do not stay finite
+    public Double meanOverGrid(Map<String, ? extends Collection<Double>> values) {
+
+        Map<String, Integer> degrees = new HashMap<>();
+        for (Map<String, Integer> monomial : terms.keySet()) {
+            monomial.forEach((name, exponent) -> degrees.merge(name, exponent, Math::max));
+        }
+
+        Map<String, double[]> powerMeans = new HashMap<>();
+        for (Map.Entry<String, Integer> degree : degrees.entrySet()) {
+            double[] means = new double[degree.getValue() + 1];
+            Collection<Double> v = values.get(degree.getKey());
+            for (double x : v) {
+                double power = 1;
+                for (int e = 0; e < means.length; e++) {
+                    means[e] += power;
+                    power *= x;
+                }
+            }
+            for (int e = 0; e < means.length; e++) {
+                means[e] /= v.size();
+            }
+            powerMeans.put(degree.getKey(), means);
+        }
+
+        double mean = 0;
+        double magnitude = 0;
+        for (Map.Entry<Map<String, Integer>, Double> term : terms.entrySet()) {
+            double t = term.getValue();
+            for (Map.Entry<String, Integer> power : term.getKey().entrySet()) {
+                t *= powerMeans.get(power.getKey())[power.getValue()];
+            }
+            mean += t;
+            magnitude += Math.abs(t);
+        }
+
+        if (!Double.isFinite(magnitude) || magnitude > Math.scalb(Math.abs(mean), MAX_CANCELLED_BITS)) {
+            return null;
+        }
+        return mean;
+    }
+
+    private static Polynomial constant(double value) {
+        return new Polynomial(value == 0 ? Map.of() : Map.of(Map.of(), value));
+    }
+
+    private boolean isConstant() {
+        return terms.isEmpty() || terms.size() == 1 && terms.containsKey(Map.of());
+    }
+
+    private double constantValue() {
+        return terms.getOrDefault(Map.of(), 0.0);
+    }
+
+    private Polynomial plus(Polynomial other, double sign) {
+        Map<Map<String, Integer>, Double> sum = new HashMap<>(terms);
+        other.terms.forEach((monomial, coefficient) -> sum.merge(monomial, sign * coefficient, Double::sum));
+        return withinLimits(sum);
+    }
+
+    private Polynomial times(Polynomial other) {
+        Map<Map<String, Integer>, Double> product = new HashMap<>();
+        for (Map.Entry<Map<String, Integer>, Double> a : terms.entrySet()) {
+            for (Map.Entry<Map<String, Integer>, Double> b : other.terms.entrySet()) {
+                Map<String, Integer> monomial = new TreeMap<>(a.getKey());
+                b.getKey().forEach((name, exponent) -> monomial.merge(name, exponent, Integer::sum));
+                product.merge(monomial, a.getValue() * b.getValue(), Double::sum);
+            }
+            if (product.size() > MAX_TERMS) {
+                return null;
+            }
+        }
+        return withinLimits(product);
+    }
+
+    // by squaring, x^0 is 1 as in Math.pow
+    private Polynomial power(int exponent) {
+        Polynomial result = constant(1);
+        Polynomial square = this;
+        while (result != null && square != null) {
+            if ((exponent & 1) != 0) {
+                result = result.times(square);
+            }
+            exponent >>= 1;
+            if (exponent == 0) {
+                return result;
+            }
+            square = square.times(square);
+        }
+        return null;
+    }
+
+    // null when the polynomial grew past the limits, the terms that cancelled out are dropped
+    private static Polynomial withinLimits(Map<Map<String, Integer>, Double> terms) {
+        terms.values().removeIf(coefficient -> coefficient == 0);
+        if (terms.size() > MAX_TERMS) {
+            return null;
+        }
+        for (Map<String, Integer> monomial : terms.keySet()) {
+            for (int exponent : monomial.values()) {
+                if (exponent > MAX_DEGREE) {
+                    return null;
+                }
+            }
+        }
+        return new Polynomial(terms);
+    }
+
+}
@@ -0,0 +1,17 @@
+package parsers.request;
+
+import java.util.List;
+
+public class BatchRequest extends TokenizedRequest {
+
+  private final List<CompRequest> requests;
+
+  protected BatchRequest(String req, List<String> tokens, RequestType type, List<CompRequest> requests) {
+    super(req, tokens, type);
+    this.requests = requests;
+  }
+
+  public List<CompRequest> requests() {
+    return requests;
+  }
+}
@@ -0,0 +1,353 @@
+package parsers.request;
+
+import parsers.expression.Constant;
+import parsers.expression.Expression;
+import parsers.expression.Node;
+import parsers.expression.Operator;
+import parsers.expression.Variable;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+// Length-prefixed binary framing, selected by sending HANDSHAKE as the first byte of a connection.
+// All multi-byte values are big-endian, doubles are raw IEEE-754.
+//
+//  request frame  : int length | byte requestType | body
+//    QUIT         : (empty)
+//    STAT         : byte statKind
+//    COMP         : compBody
+//    BATCH        : byte n | n * compBody
+//    STREAM       : compBody
+//  compBody       : byte compKind | [byte aggregates] | [int samples] | byte valuesKind | byte n | n * variableValue | byte m | m * expression
+//  aggregates     : only for MULTI, bit i set when the Aggregate with ordinal i is requested
+//  samples        : only for the approximate kinds, the sample budget, 0 for the server default
+//  variableValue  : byte nameLength | name (ASCII) | double start | double step | double final
+//  expression     : short nodeCount | nodeCount * node (prefix order)
+//  node           : CONSTANT double | VARIABLE byte variableValueIndex | OPERATOR byte operatorType
+//  (the byte and short counts are unsigned, a request with more items than its counts can hold cannot be encoded,
+//  nor can an expression nested more than MAX_EXPRESSION_DEPTH operators deep)
+//
+//  response frame : int length | byte status | body
+//    OK           : double responseTimeInSeconds | short n | n * double
+//                   (a MULTI result lists its aggregates in Aggregate order, ARGMIN and ARGMAX as one double per variable,
+//                   an approximate one is the estimate, its bound and the number of samples; a request with more
+//                   results than n can hold gets an ERR frame instead)
+//    ERR          : short messageLength | message (ASCII)
+//    PROGRESS     : double fraction | double min | double max | double avg | double elapsedTimeInSeconds
+//                   (sent periodically while a STREAM request is computed, before its OK or ERR frame. A request that
+//                   is not swept, the AVG of a polynomial over a GRID or a sampled approximate one, and one swept in
+//                   less than Server.PROGRESS_INTERVAL_MILLIS get their OK frame without any PROGRESS frame)
+public class BinaryCodec {
+
+  public static final byte HANDSHAKE = (byte) 0xB1;
+  public static final int MAX_FRAME_LENGTH = 1 << 20;
+  // the nodes are decoded recursively, a frame can hold far deeper expressions than a thread has stack for
+  public static final int MAX_EXPRESSION_DEPTH = 1 << 10;
+
+  public static final byte QUIT = 0;
+  public static final byte STAT = 1;
+  public static final byte COMP = 2;
+  public static final byte BATCH = 3;
+  public static final byte STREAM = 4;
+
+  public static final byte OK = 0;
+  public static final byte ERR = 1;
+  public static final byte PROGRESS = 2;
+
+  private static final byte CONSTANT_NODE = 0;
+  private static final byte VARIABLE_NODE = 1;
+  private static final byte OPERATOR_NODE = 2;
+
+  private BinaryCodec() {
+  }
+
+  // decodes the payload of a request frame, the buffer must be positioned after the length prefix
+  public static TokenizedRequest decodeRequest(ByteBuffer buf) throws MalformedRequestException {
+    try {
+      byte type = buf.get();
+      TokenizedRequest request = switch (type) {
+        case QUIT -> new QuitRequest("BYE", List.of(), TokenizedRequest.RequestType.QUIT);
+        case STAT -> {
+          StatRequest.StatKind kind = enumAt(StatRequest.StatKind.values(), buf.get(), "Invalid StatKind code");
+          yield new StatRequest("STAT_" + kind.name(), List.of(), TokenizedRequest.RequestType.STAT, kind);
+        }
+        case COMP -> decodeComputationRequest(buf);
+        case BATCH -> {
+          int numOfReqs = Byte.toUnsignedInt(buf.get());
+          if (numOfReqs == 0) {
+            throw new MalformedRequestException("Empty batch");
+          }
+          List<CompRequest> requests = new ArrayList<>(numOfReqs);
+          for (int i = 0; i < numOfReqs; i++) {
+            requests.add(decodeComputationRequest(buf));
+          }
+          yield new BatchRequest("BATCH;" + requests.stream().map(CompRequest::toString).collect(Collectors.joining("|")), List.of(), TokenizedRequest.RequestType.BATCH, requests);
+        }
+        case STREAM -> {
+          CompRequest streamed = decodeComputationRequest(buf);
+          yield new StreamRequest("STREAM;" + streamed, List.of(), TokenizedRequest.RequestType.STREAM, streamed);
+        }
+        default -> throw new MalformedRequestException("Invalid request type code " + type);
+      };
+      if (buf.hasRemaining()) {
+        throw new MalformedRequestException("Trailing bytes after request");
+      }
+      return request;
+    } catch (BufferUnderflowException e) {
+      throw new MalformedRequestException("Truncated request frame");
+    }
+  }
+
+  private static CompRequest decodeComputationRequest(ByteBuffer buf) throws MalformedRequestException {
+    CompRequest.ComputationKind compKind = enumAt(CompRequest.ComputationKind.values(), buf.get(), "Invalid ComputationKind code");
+    Set<CompRequest.Aggregate> aggregates = EnumSet.noneOf(CompRequest.Aggregate.class);
+    if (compKind == CompRequest.ComputationKind.MULTI) {
+      int mask = Byte.toUnsignedInt(buf.get());
+      for (CompRequest.Aggregate aggregate : CompRequest.Aggregate.values()) {
+        if ((mask & (1 << aggregate.ordinal())) != 0) {
+          aggregates.add(aggregate);
+        }
+      }
+      if (aggregates.isEmpty() || mask >>> CompRequest.Aggregate.values().length != 0) {
+        throw new MalformedRequestException("Invalid aggregates mask");
+      }
+    }
+    int sampleBudget = 0;
+    if (compKind.isApproximate()) {
+      sampleBudget = buf.getInt();
+      if (sampleBudget < 0) {
+        throw new MalformedRequestException("Invalid sample budget");
+      }
+    }
+    CompRequest.ValuesKind valuesKind = enumAt(CompRequest.ValuesKind.values(), buf.get(), "Invalid ValuesKind code");
+
+    int numOfVars = Byte.toUnsignedInt(buf.get());
+    if (numOfVars == 0) {
+      throw new MalformedRequestException("At least one VariableValue is required");
+    }
+    List<CompRequest.VariableValue> variableValues = new ArrayList<>(numOfVars);
+    for (int i = 0; i < numOfVars; i++) {
+      byte[] name = new byte[Byte.toUnsignedInt(buf.get())];
+      buf.get(name);
+      if (!isValidVariableName(name)) {
+        throw new MalformedRequestException("Invalid variable name");
+      }
+      try {
+        variableValues.add(new CompRequest.VariableValue(new String(name, StandardCharsets.US_ASCII), buf.getDouble(), buf.getDouble(), buf.getDouble()));
+      } catch (IllegalArgumentException e) {
+        throw new MalformedRequestException(e.getMessage());
+      }
+    }
+
+    int numOfExprs = Byte.toUnsignedInt(buf.get());
+    if (numOfExprs == 0) {
+      throw new MalformedRequestException("At least one expression is required");
+    }
+    List<Node> expressions = new ArrayList<>(numOfExprs);
+    for (int i = 0; i < numOfExprs; i++) {
+      int[] remainingNodes = {Short.toUnsignedInt(buf.getShort())};
+      expressions.add(decodeNode(buf, variableValues, remainingNodes, 0));
+      if (remainingNodes[0] != 0) {
+        throw new MalformedRequestException("Expression node count does not match its nodes");
+      }
+    }
+
+    return new CompRequest(text(compKind, aggregates, sampleBudget, valuesKind, variableValues, expressions), List.of(), TokenizedRequest.RequestType.COMP, compKind, valuesKind, variableValues, expressions, aggregates, sampleBudget);
+  }
+
+  // the decoded request in the syntax of the text protocol, which is what the server logs of it
+  private static String text(CompRequest.ComputationKind compKind, Set<CompRequest.Aggregate> aggregates, int sampleBudget, CompRequest.ValuesKind valuesKind, List<CompRequest.VariableValue> variableValues, List<Node> expressions) {
+    StringBuilder sb = new StringBuilder(compKind.name());
+    if (compKind == CompRequest.ComputationKind.MULTI) {
+      sb.append(aggregates.stream().map(Enum::name).collect(Collectors.joining(",", "[", "]")));
+    }
+    if (compKind.isApproximate() && sampleBudget != 0) {
+      sb.append('[').append(sampleBudget).append(']');
+    }
+    sb.append('_').append(valuesKind.name()).append(';');
+    sb.append(variableValues.stream().map(v -> v.name() + ":" + v.startingVal() + ":" + v.step() + ":" + v.finalVal()).collect(Collectors.joining(",")));
+    for (Node e : expressions) {
+      sb.append(';').append(e);
+    }
+    return sb.toString();
+  }
+
+  private static Node decodeNode(ByteBuffer buf, List<CompRequest.VariableValue> variableValues, int[] remainingNodes, int depth) throws MalformedRequestException {
+    if (remainingNodes[0]-- == 0) {
+      throw new MalformedRequestException("Expression node count does not match its nodes");
+    }
+    if (depth > MAX_EXPRESSION_DEPTH) {
+      throw new MalformedRequestException("Expression nested too deeply");
+    }
+    byte tag = buf.get();
+    return switch (tag) {
+      case CONSTANT_NODE -> new Constant(buf.getDouble());
+      case VARIABLE_NODE -> {
+        int index = Byte.toUnsignedInt(buf.get());
+        if (index >= variableValues.size()) {
+          throw new MalformedRequestException("Invalid variable index");
+        }
+        yield new Variable(variableValues.get(index).name());
+      }
+      case OPERATOR_NODE -> {
+        Operator.Type type = enumAt(Operator.Type.values(), buf.get(), "Invalid operator code");
+        Node child1 = decodeNode(buf, variableValues, remainingNodes, depth + 1);
+        Node child2 = decodeNode(buf, variableValues, remainingNodes, depth + 1);
+        yield new Operator(type, Arrays.asList(child1, child2));
+      }
+      default -> throw new MalformedRequestException("Invalid expression node code " + tag);
+    };
+  }
+
+  // encodes a whole request frame, length prefix included
+  public static void encodeRequest(TokenizedRequest req, ByteBuffer buf) {
+    int start = buf.position();
+    buf.putInt(0);
+    switch (req.type()) {
+      case QUIT -> buf.put(QUIT);
+      case STAT -> buf.put(STAT).put((byte) ((StatRequest) req).kind().ordinal());
+      case COMP -> encodeComputationRequest((CompRequest) req, buf.put(COMP));
+      case BATCH -> {
+        buf.put(BATCH).put(unsignedByte(((BatchRequest) req).requests().size(), "requests in the batch"));
+        for (CompRequest r : ((BatchRequest) req).requests()) {
+          encodeComputationRequest(r, buf);
+        }
+      }
+      case STREAM -> encodeComputationRequest(((StreamRequest) req).request(), buf.put(STREAM));
+      // the handles belong to a connection of the text protocol
+      case PREPARE, RELEASE -> throw new IllegalArgumentException("Prepared expressions cannot be encoded");
+    }
+    buf.putInt(start, buf.position() - start - Integer.BYTES);
+  }
+
+  // encodes a whole STREAM request frame for req, length prefix included
+  public static void encodeStreamRequest(CompRequest req, ByteBuffer buf) {
+    int start = buf.position();
+    buf.putInt(0);
+    encodeComputationRequest(req, buf.put(STREAM));
+    buf.putInt(start, buf.position() - start - Integer.BYTES);
+  }
+
+  private static void encodeComputationRequest(CompRequest req, ByteBuffer buf) {
+    buf.put((byte) req.kind().ordinal());
+    if (req.kind() == CompRequest.ComputationKind.MULTI) {
+      int mask = 0;
+      for (CompRequest.Aggregate aggregate : req.aggregates()) {
+        mask |= 1 << aggregate.ordinal();
+      }
+      buf.put((byte) mask);
+    }
+    if (req.kind().isApproximate()) {
+      buf.putInt(req.sampleBudget());
+    }
+    buf.put((byte) req.valuesKind().ordinal());
+    buf.put(unsignedByte(req.variableValues().size(), "VariableValues"));
+    for (CompRequest.VariableValue v : req.variableValues()) {
+      buf.put(unsignedByte(v.name().length(), "characters in variable " + v.name()));
+      for (int i = 0; i < v.name().length(); i++) {
+        buf.put((byte) v.name().charAt(i));
+      }
+      buf.putDouble(v.startingVal()).putDouble(v.step()).putDouble(v.finalVal());
+    }
+    buf.put(unsignedByte(req.expressions().size(), "expressions"));
+    for (Expression e : req.expressions()) {
+      int countPosition = buf.position();
+      buf.putShort((short) 0);
+      int numOfNodes = encodeNode(e.root(), req.variableValues(), buf, 0);
+      if (numOfNodes > 0xFFFF) {
+        throw new IllegalArgumentException("Too many nodes in an expression to encode");
+      }
+      buf.putShort(countPosition, (short) numOfNodes);
+    }
+  }
+
+  private static int encodeNode(Node node, List<CompRequest.VariableValue> variableValues, ByteBuffer buf, int depth) {
+    if (depth > MAX_EXPRESSION_DEPTH) {
+      throw new IllegalArgumentException("Expression nested too deeply to encode");
+    }
+    if (node instanceof Constant c) {
+      buf.put(CONSTANT_NODE).putDouble(c.value());
+      return 1;
+    }
+    if (node instanceof Variable v) {
+      int index = 0;
+      while (index < variableValues.size() && !variableValues.get(index).name().equals(v.name())) {
+        index++;
+      }
+      if (index == variableValues.size()) {
+        throw new IllegalArgumentException("Variable " + v.name() + " is not declared in the VariableValues");
+      }
+      buf.put(VARIABLE_NODE).put(unsignedByte(index, "VariableValues"));
+      return 1;
+    }
+    buf.put(OPERATOR_NODE).put((byte) ((Operator) node).type().ordinal());
+    return 1 + encodeNode(node.children().getFirst(), variableValues, buf, depth + 1) + encodeNode(node.children().getLast(), variableValues, buf, depth + 1);
+  }
+
+  public static int okResponseLength(int numOfResults) {
+    return Integer.BYTES + 1 + Double.BYTES + Short.BYTES + numOfResults * Double.BYTES;
+  }
+
+  public static void encodeOkResponse(ByteBuffer buf, double responseTimeInSeconds, List<? extends Number> results) {
+    if (results.size() > 0xFFFF) {
+      throw new IllegalArgumentException("Too many results to encode");
+    }
+    int start = buf.position();
+    buf.putInt(0).put(OK).putDouble(responseTimeInSeconds).putShort((short) results.size());
+    for (Number r : results) {
+      buf.putDouble(r.doubleValue());
+    }
+    buf.putInt(start, buf.position() - start - Integer.BYTES);
+  }
+
+  public static void encodeProgressResponse(ByteBuffer buf, double fraction, double min, double max, double avg, double elapsedTimeInSeconds) {
+    buf.putInt(1 + 5 * Double.BYTES).put(PROGRESS).putDouble(fraction).putDouble(min).putDouble(max).putDouble(avg).putDouble(elapsedTimeInSeconds);
+  }
+
+  public static void encodeErrorResponse(ByteBuffer buf, String msg) {
+    int start = buf.position();
+    int length = Math.min(msg.length(), Math.min(Short.MAX_VALUE, buf.remaining() - Integer.BYTES - 1 - Short.BYTES));
+    buf.putInt(0).put(ERR).putShort((short) length);
+    for (int i = 0; i < length; i++) {
+      char c = msg.charAt(i);
+      buf.put(c < 0x80 ? (byte) c : (byte) '?');
+    }
+    buf.putInt(start, buf.position() - start - Integer.BYTES);
+  }
+
+  private static byte unsignedByte(int count, String what) {
+    if (count > 0xFF) {
+      throw new IllegalArgumentException("Too many " + what + " to encode");
+    }
+    return (byte) count;
+  }
+
+  private static <T> T enumAt(T[] values, byte code, String errorMsg) throws MalformedRequestException {
+    int index = Byte.toUnsignedInt(code);
+    if (index >= values.length) {
+      throw new MalformedRequestException(errorMsg);
+    }
+    return values[index];
+  }
+
+  // same syntax accepted for variables by the ExpressionParser: [a-z][a-z0-9]*
+  private static boolean isValidVariableName(byte[] name) {
+    if (name.length == 0 || name[0] < 'a' || name[0] > 'z') {
+      return false;
+    }
+    for (byte b : name) {
+      if (!(b >= 'a' && b <= 'z') && !(b >= '0' && b <= '9')) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
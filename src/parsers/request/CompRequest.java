@@ -3,7 +3,9 @@ package parsers.request;
 import parsers.expression.Expression;
 import parsers.expression.Node;
 
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 import java.util.function.Function;
 
 public class CompRequest extends TokenizedRequest {
@@ -12,13 +14,35 @@ public class CompRequest extends TokenizedRequest {
   private final ValuesKind valKind;
   private final List<VariableValue> variableValues;
   private final List<Expression> expressions;
+  private final Set<Aggregate> aggregates;
+  private final int sampleBudget;
 
   protected CompRequest(String req, List<String> tokens, RequestType type, ComputationKind compKind, ValuesKind valKind, List<VariableValue> variableValues, List<Node> expressions) {
+    this(req, tokens, type, compKind, valKind, variableValues, expressions, EnumSet.noneOf(Aggregate.class));
+  }
+
+  protected CompRequest(String req, List<String> tokens, RequestType type, ComputationKind compKind, ValuesKind valKind, List<VariableValue> variableValues, List<Node> expressions, Set<Aggregate> aggregates) {
+    this(req, tokens, type, compKind, valKind, variableValues, expressions, aggregates, 0);
+  }
+
+  protected CompRequest(String req, List<String> tokens, RequestType type, ComputationKind compKind, ValuesKind valKind, List<VariableValue> variableValues, List<Node> expressions, Set<Aggregate> aggregates, int sampleBudget) {
     super(req, tokens, type);
     this.compKind = compKind;
     this.valKind = valKind;
     this.variableValues = variableValues;
     this.expressions = expressions.parallelStream().map(Expression::new).toList();
+    this.aggregates = aggregates;
+    this.sampleBudget = sampleBudget;
+  }
+
+  // the same request computed over other VariableValues, used to split a domain in parts
+  public CompRequest withVariableValues(List<VariableValue> variableValues) {
+    return new CompRequest(toString(), tokens(), type(), compKind, valKind, variableValues, expressions.stream().map(Expression::root).toList(), aggregates, sampleBudget);
+  }
+
+  // the same request over only some of its expressions
+  public CompRequest withExpressions(List<Expression> expressions) {
+    return new CompRequest(toString(), tokens(), type(), compKind, valKind, variableValues, expressions.stream().map(Expression::root).toList(), aggregates, sampleBudget);
   }
 
   public ComputationKind kind() {
@@ -37,11 +61,65 @@ public class CompRequest extends TokenizedRequest {
     return expressions;
   }
 
+  // the aggregates computed by a MULTI request, empty for every other kind
+  public Set<Aggregate> aggregates() {
+    return aggregates;
+  }
+
+  // the maximum number of tuples sampled by an approximate request, 0 when the server default applies
+  public int sampleBudget() {
+    return sampleBudget;
+  }
+
+  // APPROX_<AVG|MIN|MAX>[<samples>]_<ValuesKind>;<VariableValues>;<Expressions>
+  // the expressions are evaluated on a low discrepancy sample of the domain instead of every tuple: the points of a
+  // Halton sequence over the values of the variables of a GRID, of a van der Corput sequence over the tuples of a
+  // LIST. At most <samples> tuples are evaluated, the server default when omitted, and fewer if the time budget of
+  // the server runs out first. The estimate is followed by its bound and the number of tuples evaluated, e.g.
+  //   AVG=0.4998 CI95=0.0012 SAMPLES=65536
+  // CI95 is the half width of the 95% confidence interval of the AVG, computed as if the sample was random, which
+  // overestimates the error of a low discrepancy one. TAIL95 bounds MIN and MAX instead: with 95% confidence at
+  // most that fraction of the domain lies beyond the value found. A domain within the budget is computed exactly,
+  // with a bound of 0.
   public enum ComputationKind {
     MAX,
     MIN,
     AVG,
-    COUNT
+    COUNT,
+    MULTI,
+    APPROX_AVG,
+    APPROX_MIN,
+    APPROX_MAX;
+
+    public boolean isApproximate() {
+      return this == APPROX_AVG || this == APPROX_MIN || this == APPROX_MAX;
+    }
+
+    // the kind an approximate one estimates, the kind itself for the others
+    public ComputationKind exactKind() {
+      return switch (this) {
+        case APPROX_AVG -> AVG;
+        case APPROX_MIN -> MIN;
+        case APPROX_MAX -> MAX;
+        default -> this;
+      };
+    }
+  }
+
+  // MULTI[<Aggregate>,...]_<ValuesKind>;<VariableValues>;<Expression>
+  // the aggregates are computed in a single pass over the values of the first expression, the response lists them
+  // in the order below as space separated KEY=VALUE pairs, whatever the order they were requested in, for example
+  //   MIN=-1.0 MAX=1.0 AVG=0.0 COUNT=21 VAR=0.35 ARGMIN=-1.0:2.0 ARGMAX=1.0:2.0
+  // VAR is the population variance, ARGMIN and ARGMAX are the first tuple found reaching the MIN and the MAX, with
+  // the values separated by ':' in the same order the variables are declared in the VariableValues
+  public enum Aggregate {
+    MIN,
+    MAX,
+    AVG,
+    COUNT,
+    VAR,
+    ARGMIN,
+    ARGMAX
   }
 
   public enum ValuesKind {
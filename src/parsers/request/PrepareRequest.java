@@ -0,0 +1,27 @@
+package parsers.request;
+
+import parsers.expression.Node;
+
+import java.util.List;
+
+// PREPARE;<Expressions> registers the expressions on the connection, PREPARE_GLOBAL;<Expressions> on the server,
+// the response is the handle computation requests can use in place of them, @<n> and @@<n> respectively
+public class PrepareRequest extends TokenizedRequest {
+
+  private final boolean global;
+  private final List<Node> expressions;
+
+  protected PrepareRequest(String req, List<String> tokens, RequestType type, boolean global, List<Node> expressions) {
+    super(req, tokens, type);
+    this.global = global;
+    this.expressions = expressions;
+  }
+
+  public boolean global() {
+    return global;
+  }
+
+  public List<Node> expressions() {
+    return expressions;
+  }
+}
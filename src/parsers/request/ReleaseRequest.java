@@ -0,0 +1,24 @@
+package parsers.request;
+
+import java.util.List;
+
+// RELEASE;@<n> or RELEASE;@@<n>, the handle can no longer be used once released
+public class ReleaseRequest extends TokenizedRequest {
+
+  private final int handle;
+  private final boolean global;
+
+  protected ReleaseRequest(String req, List<String> tokens, RequestType type, int handle, boolean global) {
+    super(req, tokens, type);
+    this.handle = handle;
+    this.global = global;
+  }
+
+  public int handle() {
+    return handle;
+  }
+
+  public boolean global() {
+    return global;
+  }
+}
@@ -4,16 +4,38 @@ import parsers.expression.ExpressionParser;
 import parsers.expression.Node;
 
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class RequestParser {
 
+  private static final String BATCH_PREFIX = "BATCH;";
+  private static final String BATCH_SEPARATOR = "|";
+  private static final String STREAM_PREFIX = "STREAM;";
+  private static final String PREPARE_PREFIX = "PREPARE;";
+  private static final String PREPARE_GLOBAL_PREFIX = "PREPARE_GLOBAL;";
+  private static final String RELEASE_PREFIX = "RELEASE;";
+  private static final Pattern HANDLE = Pattern.compile("(@@?)([0-9]+)");
+
   private final Request req;
+  private final PreparedExpressions prepared;
+
+  // the expressions prepared by PREPARE, by handle, null when there are none
+  public interface PreparedExpressions {
+    List<Node> get(int handle, boolean global);
+  }
 
   public RequestParser(Request req){
+    this(req, (handle, global) -> null);
+  }
+
+  // the handles in the computation requests are resolved by prepared
+  public RequestParser(Request req, PreparedExpressions prepared){
     this.req = req;
+    this.prepared = prepared;
   }
 
   public TokenizedRequest parse() throws MalformedRequestException {
@@ -25,15 +47,130 @@ public class RequestParser {
               new StatRequest(req.toString(), List.of(req.toString()), TokenizedRequest.RequestType.STAT, StatRequest.StatKind.AVG_TIME);
       case "STAT_MAX_TIME" ->
               new StatRequest(req.toString(), List.of(req.toString()), TokenizedRequest.RequestType.STAT, StatRequest.StatKind.MAX_TIME);
-      default -> parseComputationRequest();
+      case "STAT_CONNS" ->
+              new StatRequest(req.toString(), List.of(req.toString()), TokenizedRequest.RequestType.STAT, StatRequest.StatKind.CONNS);
+      case "STAT_REJECTED_CONNS" ->
+              new StatRequest(req.toString(), List.of(req.toString()), TokenizedRequest.RequestType.STAT, StatRequest.StatKind.REJECTED_CONNS);
+      case "STAT_IDLE_TIMEOUTS" ->
+              new StatRequest(req.toString(), List.of(req.toString()), TokenizedRequest.RequestType.STAT, StatRequest.StatKind.IDLE_TIMEOUTS);
+      case "STAT_READ_TIMEOUTS" ->
+              new StatRequest(req.toString(), List.of(req.toString()), TokenizedRequest.RequestType.STAT, StatRequest.StatKind.READ_TIMEOUTS);
+      case "STAT_WRITE_TIMEOUTS" ->
+              new StatRequest(req.toString(), List.of(req.toString()), TokenizedRequest.RequestType.STAT, StatRequest.StatKind.WRITE_TIMEOUTS);
+      case "STAT_OVERSIZED_REQS" ->
+              new StatRequest(req.toString(), List.of(req.toString()), TokenizedRequest.RequestType.STAT, StatRequest.StatKind.OVERSIZED_REQS);
+      case "STAT_COALESCED_REQS" ->
+              new StatRequest(req.toString(), List.of(req.toString()), TokenizedRequest.RequestType.STAT, StatRequest.StatKind.COALESCED_REQS);
+      default -> {
+        if (req.toString().startsWith(BATCH_PREFIX)) {
+          yield parseBatchRequest();
+        }
+        if (req.toString().startsWith(STREAM_PREFIX)) {
+          yield parseStreamRequest();
+        }
+        if (req.toString().startsWith(PREPARE_PREFIX)) {
+          yield parsePrepareRequest(PREPARE_PREFIX, false);
+        }
+        if (req.toString().startsWith(PREPARE_GLOBAL_PREFIX)) {
+          yield parsePrepareRequest(PREPARE_GLOBAL_PREFIX, true);
+        }
+        if (req.toString().startsWith(RELEASE_PREFIX)) {
+          yield parseReleaseRequest();
+        }
+        yield parseComputationRequest();
+      }
     };
   }
 
+  // STREAM;<CompRequest>
+  private TokenizedRequest parseStreamRequest() throws MalformedRequestException {
+    TokenizedRequest request = new RequestParser(new Request(req.toString().substring(STREAM_PREFIX.length())), prepared).parse();
+    if (request.type() != TokenizedRequest.RequestType.COMP) {
+      throw new MalformedRequestException("Only computation requests can be streamed");
+    }
+    return new StreamRequest(req.toString(), List.of(STREAM_PREFIX.substring(0, STREAM_PREFIX.length() - 1), request.toString()), TokenizedRequest.RequestType.STREAM, (CompRequest) request);
+  }
+
+  // BATCH;<CompRequest>|<CompRequest>|...
+  private TokenizedRequest parseBatchRequest() throws MalformedRequestException {
+    final List<String> tokens = new ArrayList<>();
+    final List<CompRequest> requests = new ArrayList<>();
+    tokens.add(BATCH_PREFIX.substring(0, BATCH_PREFIX.length() - 1));
+
+    for (String subReq : req.toString().substring(BATCH_PREFIX.length()).split(Pattern.quote(BATCH_SEPARATOR), -1)) {
+      if (subReq.isBlank()) {
+        throw new MalformedRequestException("Empty request in batch");
+      }
+      TokenizedRequest request = new RequestParser(new Request(subReq.trim()), prepared).parse();
+      if (request.type() != TokenizedRequest.RequestType.COMP) {
+        throw new MalformedRequestException("Only computation requests can be batched");
+      }
+      tokens.add(subReq.trim());
+      requests.add((CompRequest) request);
+    }
+
+    return new BatchRequest(req.toString(), tokens, TokenizedRequest.RequestType.BATCH, requests);
+  }
+
+  // PREPARE;<Expression>;... or PREPARE_GLOBAL;<Expression>;...
+  private TokenizedRequest parsePrepareRequest(String prefix, boolean global) throws MalformedRequestException {
+    final List<String> tokens = new ArrayList<>();
+    final List<Node> expressions = new ArrayList<>();
+    tokens.add(prefix.substring(0, prefix.length() - 1));
+
+    for (String expression : req.toString().substring(prefix.length()).split(";", -1)) {
+      try {
+        expressions.add(new ExpressionParser(expression).parse());
+      } catch (IllegalArgumentException e) {
+        throw new MalformedRequestException("Invalid expression syntax: " + e.getMessage());
+      }
+      tokens.add(expression);
+    }
+
+    return new PrepareRequest(req.toString(), tokens, TokenizedRequest.RequestType.PREPARE, global, List.copyOf(expressions));
+  }
+
+  // RELEASE;@<n> or RELEASE;@@<n>
+  private TokenizedRequest parseReleaseRequest() throws MalformedRequestException {
+    String handle = req.toString().substring(RELEASE_PREFIX.length()).trim();
+    Matcher matcher = HANDLE.matcher(handle);
+    if (!matcher.matches()) {
+      throw new MalformedRequestException("Invalid handle \"" + handle + "\"");
+    }
+    return new ReleaseRequest(req.toString(), List.of(RELEASE_PREFIX.substring(0, RELEASE_PREFIX.length() - 1), handle), TokenizedRequest.RequestType.RELEASE,
+            handleNumber(matcher), matcher.group(1).length() == 2);
+  }
+
+  // the expressions of a computation request, where a handle stands for all the expressions prepared under it
+  private void parseExpression(String expression, List<Node> expressions) throws MalformedRequestException {
+    Matcher matcher = HANDLE.matcher(expression.trim());
+    if (!matcher.matches()) {
+      expressions.add(new ExpressionParser(expression).parse());
+      return;
+    }
+    List<Node> preparedExpressions = prepared.get(handleNumber(matcher), matcher.group(1).length() == 2);
+    if (preparedExpressions == null) {
+      throw new MalformedRequestException("Unknown handle " + expression.trim());
+    }
+    expressions.addAll(preparedExpressions);
+  }
+
+  // -1, which is never a handle, when the number is too large
+  private static int handleNumber(Matcher handle) {
+    try {
+      return Integer.parseInt(handle.group(2));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
   private TokenizedRequest parseComputationRequest() throws MalformedRequestException {
     int cursor = 0;
     final List<String> tokens = new ArrayList<>();
     final TokenizedRequest.RequestType requestType;
     final CompRequest.ComputationKind computationKind;
+    final Set<CompRequest.Aggregate> aggregates = EnumSet.noneOf(CompRequest.Aggregate.class);
+    int sampleBudget = 0;
     final CompRequest.ValuesKind valuesKind;
     final List<CompRequest.VariableValue> variableValues = new ArrayList<>();
     final List<Node> expressions = new ArrayList<>();
@@ -43,7 +180,7 @@ public class RequestParser {
     Token token;
 
     // parses the type of computation
-    matcher = Pattern.compile("MAX|MIN|AVG|COUNT").matcher(req.toString());
+    matcher = Pattern.compile("APPROX_(AVG|MIN|MAX)(\\[[0-9]+])?|MAX|MIN|AVG|COUNT|MULTI\\[[A-Z,]*]").matcher(req.toString());
     if (!matcher.find(cursor) || cursor != matcher.start()) {
       throw new MalformedRequestException("Invalid request type");
     } else {
@@ -55,8 +192,16 @@ public class RequestParser {
         case "MIN" -> CompRequest.ComputationKind.MIN;
         case "AVG" -> CompRequest.ComputationKind.AVG;
         case "COUNT" -> CompRequest.ComputationKind.COUNT;
-        default -> null;
+        default -> tokens.getLast().startsWith("APPROX_") ?
+                CompRequest.ComputationKind.valueOf("APPROX_" + matcher.group(1)) :
+                CompRequest.ComputationKind.MULTI;
       };
+      if (computationKind == CompRequest.ComputationKind.MULTI) {
+        aggregates.addAll(parseAggregates(tokens.getLast()));
+      }
+      if (computationKind.isApproximate() && matcher.group(2) != null) {
+        sampleBudget = parseSampleBudget(matcher.group(2));
+      }
       cursor = token.end;
     }
 
@@ -123,13 +268,11 @@ public class RequestParser {
       matcher = Pattern.compile(";").matcher(req.toString());
       try {
         if (!matcher.find(cursor)) {
-          ExpressionParser exprParser = new ExpressionParser(req.toString().substring(cursor));
-          expressions.add(exprParser.parse());
+          parseExpression(req.toString().substring(cursor), expressions);
           cursor = req.toString().length()-1;
         } else {
           token = new Token(cursor, matcher.start());
-          ExpressionParser exprParser = new ExpressionParser(req.toString().substring(token.start, token.end));
-          expressions.add(exprParser.parse());
+          parseExpression(req.toString().substring(token.start, token.end), expressions);
           cursor = token.end;
         }
       } catch (IllegalArgumentException e) {
@@ -138,8 +281,35 @@ public class RequestParser {
 
     } while (req.toString().charAt(cursor++) == ';');
 
-    return new CompRequest(req.toString(), tokens, requestType, computationKind, valuesKind, variableValues, expressions);
+    return new CompRequest(req.toString(), tokens, requestType, computationKind, valuesKind, variableValues, expressions, aggregates, sampleBudget);
+
+  }
+
+  // parses the aggregates list of MULTI[<Aggregate>,...]
+  private static Set<CompRequest.Aggregate> parseAggregates(String multi) throws MalformedRequestException {
+    Set<CompRequest.Aggregate> aggregates = EnumSet.noneOf(CompRequest.Aggregate.class);
+    for (String aggregate : multi.substring(multi.indexOf('[') + 1, multi.length() - 1).split(",", -1)) {
+      try {
+        aggregates.add(CompRequest.Aggregate.valueOf(aggregate));
+      } catch (IllegalArgumentException e) {
+        throw new MalformedRequestException("Invalid aggregate \"" + aggregate + "\"");
+      }
+    }
+    return aggregates;
+  }
 
+  // parses the [<samples>] of APPROX_<kind>[<samples>]
+  private static int parseSampleBudget(String samples) throws MalformedRequestException {
+    int sampleBudget;
+    try {
+      sampleBudget = Integer.parseInt(samples.substring(1, samples.length() - 1));
+    } catch (NumberFormatException e) {
+      sampleBudget = 0;
+    }
+    if (sampleBudget <= 0) {
+      throw new MalformedRequestException("Invalid sample budget " + samples);
+    }
+    return sampleBudget;
   }
 
   private static CompRequest.VariableValue parseVariableValue(String varVal) throws MalformedRequestException {
@@ -15,9 +15,22 @@ public class StatRequest extends TokenizedRequest {
     return kind;
   }
 
+  // the connection ones count how often each limit of the connections was hit, CONNS is the number of open ones
   public enum StatKind {
     REQS,
     AVG_TIME,
-    MAX_TIME
+    MAX_TIME,
+    CONNS,
+    REJECTED_CONNS,
+    IDLE_TIMEOUTS,
+    READ_TIMEOUTS,
+    WRITE_TIMEOUTS,
+    OVERSIZED_REQS,
+    COALESCED_REQS;
+
+    // the others are counts
+    public boolean isDuration() {
+      return this == AVG_TIME || this == MAX_TIME;
+    }
   }
 }
@@ -0,0 +1,17 @@
+package parsers.request;
+
+import java.util.List;
+
+public class StreamRequest extends TokenizedRequest {
+
+  private final CompRequest request;
+
+  protected StreamRequest(String req, List<String> tokens, RequestType type, CompRequest request) {
+    super(req, tokens, type);
+    this.request = request;
+  }
+
+  public CompRequest request() {
+    return request;
+  }
+}
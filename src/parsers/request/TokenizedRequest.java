@@ -24,7 +24,11 @@ public abstract class TokenizedRequest extends Request {
   public enum RequestType {
     QUIT,
     STAT,
-    COMP;
+    COMP,
+    BATCH,
+    STREAM,
+    PREPARE,
+    RELEASE;
   }
 
 }
@@ -0,0 +1,82 @@
+import org.junit.jupiter.api.Test;
+import parsers.request.BinaryCodec;
+import parsers.request.MalformedRequestException;
+import parsers.request.Request;
+import parsers.request.RequestParser;
+import parsers.request.TokenizedRequest;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// a BATCH goes through the binary protocol the way a client sends it, decoded and then computed
+class BatchTest {
+
+  private static final List<String> ITEMS = List.of(
+          "MAX_GRID;x0:-1:0.5:1,x1:0:1:3;((x0*x1)-x1)",
+          "COUNT_LIST;x0:0:1:9,x1:10:1:19;x0",
+          "MULTI[MIN,AVG,ARGMAX]_GRID;x0:0:0.25:2;((x0-1)^2)",
+          "MIN_GRID;x0:-1:0.5:1,x1:0:1:3;((x0*x1)-x1)",
+          "AVG_LIST;x0:1:1:4;(x0/2)"
+  );
+
+  private static TokenizedRequest decoded(String request) throws MalformedRequestException {
+    ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+    BinaryCodec.encodeRequest(new RequestParser(new Request(request)).parse(), buf);
+    buf.flip().position(Integer.BYTES);
+    return BinaryCodec.decodeRequest(buf);
+  }
+
+  private static List<Number> results(String request) throws Exception {
+    return ClientHandler.RequestHandler.generateResults(decoded(request), null);
+  }
+
+  @Test
+  void resultsOfTheItemsAreConcatenatedInOrder() throws Exception {
+    List<Number> expected = new ArrayList<>();
+    for (String item : ITEMS) {
+      expected.addAll(results(item));
+    }
+    assertEquals(expected, results("BATCH;" + String.join("|", ITEMS)));
+
+    List<String> reversed = new ArrayList<>(ITEMS);
+    Collections.reverse(reversed);
+    List<Number> expectedReversed = new ArrayList<>();
+    for (String item : reversed) {
+      expectedReversed.addAll(results(item));
+    }
+    assertEquals(expectedReversed, results("BATCH;" + String.join("|", reversed)));
+  }
+
+  @Test
+  void oneBadItemFailsTheWholeBatch() {
+    // LIST values of different sizes, the batch gets a single ERR and no result of its good items
+    MalformedRequestException e = assertThrows(MalformedRequestException.class, () -> results("BATCH;" + ITEMS.getFirst() + "|AVG_LIST;x0:0:1:3,x1:0:1:9;x0"));
+    assertEquals("Variables' ranges do not have the same magnitude", e.getMessage());
+    // an undeclared variable cannot even be encoded, it is refused the same way in the text protocol
+    assertThrows(IllegalArgumentException.class, () -> decoded("BATCH;" + ITEMS.getFirst() + "|MAX_GRID;x0:0:1:3;(y0+1)"));
+    e = assertThrows(MalformedRequestException.class, () -> ClientHandler.RequestHandler.generateResults(new RequestParser(new Request("BATCH;" + ITEMS.getFirst() + "|MAX_GRID;x0:0:1:3;(y0+1)")).parse(), null));
+    assertEquals("Not all variables in the expressions are declared in the VariableValues", e.getMessage());
+    // a syntax error, found when parsing
+    assertThrows(MalformedRequestException.class, () -> decoded("BATCH;" + ITEMS.getFirst() + "|MAX_GRID;x0:0:1:3;(x0+"));
+    // only computations can be batched
+    assertThrows(MalformedRequestException.class, () -> decoded("BATCH;" + ITEMS.getFirst() + "|STAT_REQS"));
+  }
+
+  @Test
+  void itemsAreAtMostWhatTheCountHolds() throws Exception {
+    List<String> items = Collections.nCopies(255, "MAX_GRID;x0:0:1:3;x0");
+    assertEquals(Collections.nCopies(255, 3.0), results("BATCH;" + String.join("|", items)));
+
+    List<String> tooMany = Collections.nCopies(256, "MAX_GRID;x0:0:1:3;x0");
+    IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> decoded("BATCH;" + String.join("|", tooMany)));
+    assertEquals("Too many requests in the batch to encode", e.getMessage());
+
+    MalformedRequestException empty = assertThrows(MalformedRequestException.class, () -> BinaryCodec.decodeRequest(ByteBuffer.wrap(new byte[]{BinaryCodec.BATCH, 0})));
+    assertEquals("Empty batch", empty.getMessage());
+  }
+
+}
@@ -0,0 +1,195 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// the limits are options of the server, which are static, so every test starts a server of its own in another JVM
+class ConnectionLimitsTest {
+
+  private final List<Socket> sockets = new ArrayList<>();
+  private Process server;
+  private InetSocketAddress address;
+
+  private void startServer(String... options) throws IOException {
+    int port;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    List<String> command = new ArrayList<>(List.of(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+            "-cp", System.getProperty("java.class.path"), "Server", Integer.toString(port), "--log-requests", "off"));
+    command.addAll(List.of(options));
+    server = new ProcessBuilder(command).redirectOutput(ProcessBuilder.Redirect.DISCARD).redirectError(ProcessBuilder.Redirect.DISCARD).start();
+    address = new InetSocketAddress("localhost", port);
+  }
+
+  @AfterEach
+  void stopServer() throws IOException {
+    for (Socket socket : sockets) {
+      socket.close();
+    }
+    if (server != null) {
+      server.destroyForcibly();
+    }
+  }
+
+  private Socket connect() throws IOException, InterruptedException {
+    return connect(0);
+  }
+
+  // retried until the server listens, a connection refused before it does has not counted against any limit.
+  // The receive buffer of the socket is left to the system when 0
+  private Socket connect(int receiveBufferSize) throws IOException, InterruptedException {
+    for (int attempt = 0; ; attempt++) {
+      Socket socket = new Socket();
+      if (receiveBufferSize > 0) {
+        socket.setReceiveBufferSize(receiveBufferSize);
+      }
+      try {
+        socket.connect(address);
+        socket.setSoTimeout(10_000);
+        sockets.add(socket);
+        return socket;
+      } catch (IOException e) {
+        socket.close();
+        if (attempt == 200) {
+          throw e;
+        }
+        Thread.sleep(50);
+      }
+    }
+  }
+
+  private static BufferedReader reader(Socket socket) throws IOException {
+    return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+  }
+
+  private static void send(Socket socket, String text) throws IOException {
+    socket.getOutputStream().write(text.getBytes(StandardCharsets.US_ASCII));
+    socket.getOutputStream().flush();
+  }
+
+  // the result of a STAT request, sent on a connection of its own
+  private long stat(String request) throws IOException, InterruptedException {
+    try (Socket socket = connect()) {
+      send(socket, request + "\nBYE\n");
+      String response = reader(socket).readLine();
+      assertTrue(response.startsWith("OK;"), response);
+      return Long.parseLong(response.substring(response.lastIndexOf(';') + 1));
+    }
+  }
+
+  @Test
+  @Timeout(30)
+  void connectionOverTheLimitIsRejected() throws Exception {
+    startServer("--max-connections", "1");
+    Socket first = connect();
+    BufferedReader firstIn = reader(first);
+    send(first, "STAT_CONNS\n");
+    assertTrue(firstIn.readLine().endsWith(";1"));
+
+    Socket second = connect();
+    BufferedReader secondIn = reader(second);
+    assertEquals("ERR;TOO MANY CONNECTIONS", secondIn.readLine());
+    assertNull(secondIn.readLine());
+
+    send(first, "STAT_REJECTED_CONNS\n");
+    assertTrue(firstIn.readLine().endsWith(";1"));
+    // the slot is given back once the connection is closed, a connection may be refused until then
+    send(first, "BYE\n");
+    assertNull(firstIn.readLine());
+    String response;
+    do {
+      try (Socket third = connect()) {
+        send(third, "STAT_CONNS\n");
+        response = reader(third).readLine();
+      }
+    } while (response.startsWith("ERR;"));
+    assertTrue(response.endsWith(";1"), response);
+  }
+
+  @Test
+  @Timeout(30)
+  void oversizedLineClosesTheConnection() throws Exception {
+    startServer("--max-request-bytes", "64");
+    Socket socket = connect();
+    BufferedReader in = reader(socket);
+    send(socket, "STAT_REQS\n" + "MAX_GRID;x0:0:1:3;" + "(x0+1)".repeat(20) + "\nSTAT_REQS\n");
+    assertTrue(in.readLine().startsWith("OK;"));
+    assertEquals("ERR;REQUEST TOO LONG", in.readLine());
+    assertNull(in.readLine());
+    assertEquals(1, stat("STAT_OVERSIZED_REQS"));
+  }
+
+  @Test
+  @Timeout(30)
+  void slowDripRequestHitsTheReadDeadline() throws Exception {
+    startServer("--read-timeout-millis", "500");
+    Socket socket = connect();
+    BufferedReader in = reader(socket);
+    long start = System.nanoTime();
+    // every byte comes well within the timeout, the whole line does not
+    OutputStream out = socket.getOutputStream();
+    try {
+      for (byte b : "STAT_REQS_AND_SOME_MORE_BYTES".getBytes(StandardCharsets.US_ASCII)) {
+        out.write(b);
+        out.flush();
+        Thread.sleep(100);
+      }
+    } catch (IOException e) {
+      // closed by the server
+    }
+    assertEquals("ERR;READ TIMEOUT", in.readLine());
+    assertNull(in.readLine());
+    long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+    assertTrue(elapsedMillis >= 500 && elapsedMillis < 5_000, elapsedMillis + " ms");
+    assertEquals(1, stat("STAT_READ_TIMEOUTS"));
+  }
+
+  @Test
+  @Timeout(30)
+  void responseIsNotHeldBackByAPartialRequest() throws Exception {
+    startServer("--read-timeout-millis", "20000");
+    Socket socket = connect();
+    socket.setSoTimeout(5_000);
+    BufferedReader in = reader(socket);
+    // the responses of the complete requests come before the rest of the last one is sent
+    send(socket, "STAT_CONNS\nSTAT_CONNS\nSTAT_RE");
+    assertTrue(in.readLine().endsWith(";1"));
+    assertTrue(in.readLine().endsWith(";1"));
+    send(socket, "QS\n");
+    assertTrue(in.readLine().startsWith("OK;"));
+  }
+
+  @Test
+  @Timeout(60)
+  void clientThatNeverReadsIsClosedByTheWatchdog() throws Exception {
+    startServer("--write-timeout-millis", "500");
+    // a small window fills the buffers of the connection sooner
+    Socket socket = connect(4096);
+    // the requests are sent until the server stops reading them, the responses are never read
+    OutputStream out = socket.getOutputStream();
+    byte[] requests = "MULTI[MIN,MAX,AVG,COUNT,VAR,ARGMIN,ARGMAX]_GRID;x0:0:1:1;x0\n".repeat(1024).getBytes(StandardCharsets.US_ASCII);
+    try {
+      while (true) {
+        out.write(requests);
+      }
+    } catch (IOException e) {
+      // the server closed the connection once its write stalled
+    }
+    assertEquals(1, stat("STAT_WRITE_TIMEOUTS"));
+  }
+
+}
@@ -0,0 +1,156 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import parsers.request.BinaryCodec;
+import parsers.request.CompRequest;
+import parsers.request.Request;
+import parsers.request.RequestParser;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.StringJoiner;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// the workers are servers started in this JVM, next to fake ones that fail in the ways a worker can
+class CoordinatorTest {
+
+  private static final String EXPRESSION = "(((x0*x1)-(x1^3))/((x0^2)+1))";
+
+  private static InetSocketAddress worker1;
+  private static InetSocketAddress worker2;
+  // nothing listens there
+  private static InetSocketAddress deadWorker;
+  // closes every connection it accepts
+  private static InetSocketAddress droppingWorker;
+  // answers every request with an ERR frame
+  private static InetSocketAddress refusingWorker;
+
+  @BeforeAll
+  static void startWorkers() throws Exception {
+    worker1 = startServer();
+    worker2 = startServer();
+    try (ServerSocket socket = new ServerSocket(0)) {
+      deadWorker = new InetSocketAddress("localhost", socket.getLocalPort());
+    }
+    droppingWorker = startFakeWorker(Socket::close);
+    refusingWorker = startFakeWorker(socket -> {
+      DataInputStream in = new DataInputStream(socket.getInputStream());
+      in.readByte();
+      in.readFully(new byte[in.readInt()]);
+      ByteBuffer buf = ByteBuffer.allocate(64).put(BinaryCodec.HANDSHAKE);
+      BinaryCodec.encodeErrorResponse(buf, "Request too long");
+      socket.getOutputStream().write(buf.array(), 0, buf.position());
+      socket.close();
+    });
+  }
+
+  private static InetSocketAddress startServer() throws Exception {
+    int port;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    Thread server = new Thread(() -> Server.main(Integer.toString(port)));
+    server.setDaemon(true);
+    server.start();
+    InetSocketAddress address = new InetSocketAddress("localhost", port);
+    for (int attempt = 0; ; attempt++) {
+      try (Socket socket = new Socket()) {
+        socket.connect(address);
+        return address;
+      } catch (IOException e) {
+        if (attempt == 100) {
+          throw e;
+        }
+        Thread.sleep(50);
+      }
+    }
+  }
+
+  private interface Connection {
+    void serve(Socket socket) throws IOException;
+  }
+
+  private static InetSocketAddress startFakeWorker(Connection connection) throws IOException {
+    ServerSocket serverSocket = new ServerSocket(0);
+    Thread worker = new Thread(() -> {
+      while (true) {
+        try (Socket socket = serverSocket.accept()) {
+          connection.serve(socket);
+        } catch (IOException e) {
+          // the next connection
+        }
+      }
+    });
+    worker.setDaemon(true);
+    worker.start();
+    return new InetSocketAddress("localhost", serverSocket.getLocalPort());
+  }
+
+  private static CompRequest parse(String request) throws Exception {
+    return (CompRequest) new RequestParser(new Request(request)).parse();
+  }
+
+  private static Number local(CompRequest req) throws Exception {
+    return ClientHandler.RequestHandler.generateResults(req, null).getFirst();
+  }
+
+  private static Number distributed(CompRequest req, InetSocketAddress... workers) throws Exception {
+    return new Coordinator(List.of(workers)).compute(req, req.variableValues().stream().map(ClientHandler.RequestHandler.a).toList(),
+            part -> ClientHandler.RequestHandler.generateResults(part, null).getFirst());
+  }
+
+  private static void assertMerged(Number expected, Number actual) {
+    // the AVG of the parts is weighted by their size, which rounds differently than a single sum
+    assertEquals(expected.doubleValue(), actual.doubleValue(), Math.abs(expected.doubleValue()) * 1e-12);
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"MIN", "MAX", "AVG", "COUNT"})
+  void mergedResultsMatchTheLocalOnes(String kind) throws Exception {
+    CompRequest req = parse(kind + "_GRID;x0:-2:0.125:2,x1:0:0.5:3;" + EXPRESSION);
+    assertMerged(local(req), distributed(req, worker1, worker2));
+  }
+
+  @Test
+  void failedWorkersHandTheirPartsToTheOthers() throws Exception {
+    CompRequest req = parse("MIN_GRID;x0:-2:0.125:2,x1:0:0.5:3;" + EXPRESSION);
+    assertMerged(local(req), distributed(req, deadWorker, droppingWorker, worker1));
+  }
+
+  @Test
+  void partsAreComputedLocallyWithoutWorkers() throws Exception {
+    CompRequest req = parse("MAX_GRID;x0:-2:0.125:2,x1:0:0.5:3;" + EXPRESSION);
+    assertMerged(local(req), distributed(req, deadWorker, droppingWorker));
+  }
+
+  @Test
+  void refusedPartsAreComputedLocally() throws Exception {
+    CompRequest req = parse("AVG_GRID;x0:-2:0.125:2,x1:0:0.5:3;" + EXPRESSION);
+    assertMerged(local(req), distributed(req, refusingWorker, worker1));
+  }
+
+  @Test
+  void onlyTheEvaluatedExpressionsAreSent() throws Exception {
+    // the AVG ignores its second expression, whose variable is not declared
+    CompRequest req = parse("AVG_GRID;x0:-2:0.125:2,x1:0:0.5:3;" + EXPRESSION + ";(y0+1)");
+    assertMerged(local(req), distributed(req, worker1, worker2));
+  }
+
+  @Test
+  void requestsTooLargeToEncodeAreComputedLocally() throws Exception {
+    StringJoiner expressions = new StringJoiner(";");
+    for (int i = 0; i < 256; i++) {
+      expressions.add("(x0*" + i + ")");
+    }
+    CompRequest req = parse("MAX_GRID;x0:-2:0.125:2;" + expressions);
+    assertMerged(local(req), distributed(req, worker1, worker2));
+  }
+
+}
@@ -0,0 +1,38 @@
+import org.junit.jupiter.api.Test;
+import parsers.expression.Constant;
+import parsers.expression.Node;
+import parsers.request.MalformedRequestException;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HandleRegistryTest {
+
+  private static final List<Node> EXPRESSIONS = List.of(new Constant(1));
+
+  @Test
+  void handlesAreCountedByOwner() throws MalformedRequestException {
+    HandleRegistry registry = new HandleRegistry(4);
+    int first = registry.prepare(EXPRESSIONS, 1);
+    registry.prepare(EXPRESSIONS, 1);
+    registry.prepare(EXPRESSIONS, 2);
+    assertEquals(2, registry.ownedBy(1));
+    assertEquals(1, registry.ownedBy(2));
+    assertEquals(0, registry.ownedBy(3));
+
+    assertSame(EXPRESSIONS, registry.release(first));
+    assertNull(registry.release(first));
+    assertEquals(1, registry.ownedBy(1));
+  }
+
+  @Test
+  void fullRegistryRefusesToPrepare() throws MalformedRequestException {
+    HandleRegistry registry = new HandleRegistry(1);
+    int handle = registry.prepare(EXPRESSIONS, 1);
+    assertThrows(MalformedRequestException.class, () -> registry.prepare(EXPRESSIONS, 2));
+    registry.release(handle);
+    assertNotEquals(handle, registry.prepare(EXPRESSIONS, 2));
+  }
+
+}
@@ -0,0 +1,109 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import parsers.request.CompRequest;
+import parsers.request.MalformedRequestException;
+import parsers.request.Request;
+import parsers.request.RequestParser;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestHandlerTest {
+
+  static List<Number> results(String request) throws MalformedRequestException, ExecutionException, InterruptedException {
+    return ClientHandler.RequestHandler.generateResults(new RequestParser(new Request(request)).parse(), null);
+  }
+
+  // a computation of request held in flight until released, the requests encoded the same wait for it meanwhile
+  private static CompletableFuture<List<Number>> holdInFlight(String request) throws MalformedRequestException {
+    CompletableFuture<List<Number>> computation = new CompletableFuture<>();
+    ByteBuffer key = ByteBuffer.wrap(ResultStore.key((CompRequest) new RequestParser(new Request(request)).parse()));
+    assertNull(ClientHandler.RequestHandler.IN_FLIGHT.putIfAbsent(key, computation));
+    computation.whenComplete((results, e) -> ClientHandler.RequestHandler.IN_FLIGHT.remove(key, computation));
+    return computation;
+  }
+
+  // the second request is sent once the first one is in flight, and the first one completes only once the second
+  // one joined it
+  private static CompletableFuture<List<Number>> joinInFlight(String request) throws InterruptedException {
+    long coalesced = Server.coalescedReqs().get();
+    CompletableFuture<List<Number>> joined = CompletableFuture.supplyAsync(() -> resultsOf(request));
+    while (Server.coalescedReqs().get() == coalesced && !joined.isDone()) {
+      Thread.sleep(1);
+    }
+    assertEquals(coalesced + 1, Server.coalescedReqs().get());
+    return joined;
+  }
+
+  @Test
+  @Timeout(10)
+  void identicalRequestsInFlightAreComputedOnce() throws Exception {
+    // spelled differently, encoded the same
+    String request = "MAX_GRID;x0:-1:0.5:1,x1:-1:0.5:1;(((x0*x0)-(x1*x1))/((x0*x1)+2))";
+    String respelled = "MAX_GRID;x0:-1:0.5:1,x1:-1:0.5:1;( ( (x0 * x0) - (x1 * x1) ) / ( (x0 * x1) + 2) )";
+    List<Number> computed = results(request);
+
+    CompletableFuture<List<Number>> first = holdInFlight(request);
+    CompletableFuture<List<Number>> second = joinInFlight(respelled);
+    first.complete(computed);
+    assertSame(computed, second.get());
+
+    // once done, the computation is not joined anymore
+    long coalesced = Server.coalescedReqs().get();
+    assertEquals(computed, results(respelled));
+    assertEquals(coalesced, Server.coalescedReqs().get());
+  }
+
+  @Test
+  @Timeout(10)
+  void joinedComputationFailsTheSameWay() throws Exception {
+    String request = "MIN_GRID;x0:0:1:3;(x0+1)";
+    CompletableFuture<List<Number>> first = holdInFlight(request);
+    CompletableFuture<List<Number>> second = joinInFlight(request);
+    first.completeExceptionally(new MalformedRequestException("Failed"));
+    ExecutionException e = assertThrows(ExecutionException.class, second::get);
+    assertInstanceOf(MalformedRequestException.class, e.getCause());
+    assertEquals("Failed", e.getCause().getMessage());
+  }
+
+  private static List<Number> resultsOf(String request) {
+    try {
+      return results(request);
+    } catch (Exception e) {
+      throw new CompletionException(e);
+    }
+  }
+
+  @Test
+  void streamedRequestHasTheResultOfTheComputation() throws Exception {
+    assertEquals(results("AVG_GRID;x0:0:0.5:10,x1:1:1:5;(x0/x1)"), results("STREAM;AVG_GRID;x0:0:0.5:10,x1:1:1:5;(x0/x1)"));
+    MalformedRequestException e = assertThrows(MalformedRequestException.class, () -> results("STREAM;MAX_GRID;x0:0:1:3;(y0+1)"));
+    assertEquals("Not all variables in the expressions are declared in the VariableValues", e.getMessage());
+  }
+
+  @Test
+  void tiedArgumentsAreTheFirstInGridOrder() throws Exception {
+    // the MIN is reached for x0 = 0 and any x1, the MAX for x0 = -1 or 1 and any x1
+    assertEquals(List.of(0.0, 0.0, -1.0, 0.0), results("MULTI[ARGMIN,ARGMAX]_GRID;x0:-1:1:1,x1:0:1:2;(x0*x0)"));
+    assertEquals(List.of(0.0, 0.0, 0.0, -1.0), results("MULTI[ARGMIN,ARGMAX]_GRID;x1:0:1:2,x0:-1:1:1;(x0*x0)"));
+    assertEquals(List.of(0.0, 1.0, -1.0, 0.0), results("MULTI[ARGMIN,ARGMAX]_LIST;x0:-1:1:1,x1:0:1:2;(x0*x0)"));
+  }
+
+  @Test
+  @Timeout(10)
+  void streamedAvgWithAClosedFormGetsNoProgress() throws Exception {
+    // ten million tuples, which would take more than a progress interval to sweep
+    List<ClientHandler.RequestHandler.Progress> progress = new ArrayList<>();
+    List<Number> results = ClientHandler.RequestHandler.generateResults(
+            new RequestParser(new Request("STREAM;AVG_GRID;x0:0:1:999999,x1:0:1:9;((x0*x1)+1)")).parse(), progress::add);
+    assertEquals(499999.5 * 4.5 + 1, results.getFirst().doubleValue(), 1e-6);
+    assertTrue(progress.isEmpty());
+  }
+
+}
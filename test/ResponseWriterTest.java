@@ -0,0 +1,31 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseWriterTest {
+
+  @Test
+  void progressLineListsTheRunningAggregates() {
+    ByteArrayOutputStream sent = new ByteArrayOutputStream();
+    ResponseWriter out = new ResponseWriter(sent);
+    out.writeProgress(new ClientHandler.RequestHandler.Progress(0.25, -1, 3, 0.5, 1500));
+    assertEquals(0, sent.size(), "nothing is sent before the flush");
+    out.flush();
+    assertEquals("PROGRESS;0.250;-1.0;3.0;0.5;1.500\n", sent.toString(StandardCharsets.US_ASCII));
+    assertEquals("PROGRESS;0.250;-1.0;3.0;0.5;1.500", out.lastLine());
+  }
+
+  @Test
+  void progressBeforeAnyValueIsNaN() {
+    ByteArrayOutputStream sent = new ByteArrayOutputStream();
+    ResponseWriter out = new ResponseWriter(sent);
+    out.writeProgress(new ClientHandler.RequestHandler.Progress(0, Double.NaN, Double.NaN, Double.NaN, 0));
+    out.flush();
+    // the results are upper case, as in the OK responses
+    assertEquals("PROGRESS;0.000;NAN;NAN;NAN;0.000\n", sent.toString(StandardCharsets.US_ASCII));
+  }
+
+}
@@ -0,0 +1,122 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import parsers.request.CompRequest;
+import parsers.request.Request;
+import parsers.request.RequestParser;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResultStoreTest {
+
+  @TempDir
+  Path dir;
+
+  private static CompRequest request(int i) throws Exception {
+    return (CompRequest) new RequestParser(new Request("MAX_GRID;x0:0:1:" + i + ";(x0*" + i + ")")).parse();
+  }
+
+  private static List<Number> results(int i) {
+    return List.of((double) i * i, (long) i);
+  }
+
+  @Test
+  void resultsAreFoundAgainAfterAReopen() throws Exception {
+    ResultStore store = ResultStore.open(dir, 1 << 20);
+    for (int i = 1; i <= 100; i++) {
+      store.put(request(i), results(i));
+      // read back while most of the records are past the mapping
+      assertEquals(results(i), store.get(request(i)));
+    }
+    assertNull(store.get(request(101)));
+    store.close();
+
+    ResultStore reopened = ResultStore.open(dir, 1 << 20);
+    assertEquals(100, reopened.size());
+    for (int i = 1; i <= 100; i++) {
+      assertEquals(results(i), reopened.get(request(i)));
+    }
+    reopened.close();
+  }
+
+  @Test
+  void recordsIndexedButNotCountedAreNotIndexedTwice() throws Exception {
+    ResultStore store = ResultStore.open(dir, 1 << 20);
+    store.put(request(1), results(1));
+    long indexedLength = store.sizeInBytes();
+    store.put(request(2), results(2));
+    store.put(request(3), results(3));
+    store.close();
+
+    // as if the crash came after the slots of the last records were written, before the header was
+    try (FileChannel index = FileChannel.open(dir.resolve("results.idx"), StandardOpenOption.WRITE)) {
+      index.write(ByteBuffer.allocate(Long.BYTES).putLong(indexedLength).flip(), 16);
+      index.write(ByteBuffer.allocate(Integer.BYTES).putInt(1).flip(), 24);
+    }
+
+    ResultStore reopened = ResultStore.open(dir, 1 << 20);
+    assertEquals(3, reopened.size());
+    for (int i = 1; i <= 3; i++) {
+      assertEquals(results(i), reopened.get(request(i)));
+    }
+    reopened.close();
+  }
+
+  @Test
+  void lookupsRunAlongsideAppends() throws Exception {
+    ResultStore store = ResultStore.open(dir, 1 << 20);
+    ExecutorService readers = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> lookups = new ArrayList<>();
+      for (int i = 1; i <= 200; i++) {
+        store.put(request(i), results(i));
+        int stored = i;
+        lookups.add(readers.submit(() -> {
+          for (int j = 1; j <= stored; j++) {
+            assertEquals(results(j), store.get(request(j)));
+          }
+          return null;
+        }));
+      }
+      for (Future<?> lookup : lookups) {
+        lookup.get();
+      }
+    } finally {
+      readers.shutdown();
+      store.close();
+    }
+  }
+
+  @Test
+  void compactionKeepsTheNewestResults() throws Exception {
+    ResultStore store = ResultStore.open(dir, 4096);
+    // the compactions run while the results keep coming
+    for (int i = 1; i <= 200; i++) {
+      store.put(request(i), results(i));
+    }
+    store.awaitCompaction();
+    int kept = store.size();
+    assertTrue(kept > 0 && kept < 200, kept + " results kept");
+    assertTrue(store.sizeInBytes() < 2 * 4096, store.sizeInBytes() + " bytes kept");
+    assertNull(store.get(request(1)));
+    for (int i = 200 - kept + 1; i <= 200; i++) {
+      assertEquals(results(i), store.get(request(i)));
+    }
+    store.close();
+
+    ResultStore reopened = ResultStore.open(dir, 4096);
+    assertEquals(kept, reopened.size());
+    assertEquals(results(200), reopened.get(request(200)));
+    reopened.close();
+  }
+
+}
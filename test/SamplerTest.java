@@ -0,0 +1,50 @@
+import org.junit.jupiter.api.Test;
+import parsers.request.CompRequest;
+import parsers.request.Request;
+import parsers.request.RequestParser;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SamplerTest {
+
+  private static CompRequest parse(String request) throws Exception {
+    return (CompRequest) new RequestParser(new Request(request)).parse();
+  }
+
+  @Test
+  void valuesAreCountedWithoutBeingEnumerated() {
+    assertEquals(11, Sampler.numOfValues(new CompRequest.VariableValue("x0", 0.0, 1.0, 10.0)));
+    // 0, 3, 6, 9 and the final value
+    assertEquals(5, Sampler.numOfValues(new CompRequest.VariableValue("x0", 0.0, 3.0, 10.0)));
+    assertEquals(1, Sampler.numOfValues(new CompRequest.VariableValue("x0", 2.0, 0.5, 2.0)));
+    assertEquals(1_000_000_000_001L, Sampler.numOfValues(new CompRequest.VariableValue("x0", 0.0, 1e-12, 1.0)));
+    assertEquals(Long.MAX_VALUE, Sampler.numOfValues(new CompRequest.VariableValue("x0", 0.0, 1e-300, 1e300)));
+  }
+
+  @Test
+  void domainSizeSaturates() {
+    CompRequest.VariableValue large = new CompRequest.VariableValue("x0", 0.0, 1e-12, 1.0);
+    CompRequest.VariableValue small = new CompRequest.VariableValue("x1", 0.0, 1.0, 1.0);
+    assertEquals(Long.MAX_VALUE, Sampler.domainSize(CompRequest.ValuesKind.GRID, List.of(large, large)));
+    assertEquals(2_000_000_000_002L, Sampler.domainSize(CompRequest.ValuesKind.GRID, List.of(large, small)));
+    assertEquals(-1, Sampler.domainSize(CompRequest.ValuesKind.LIST, List.of(large, small)));
+  }
+
+  @Test
+  void sampleOfAHugeGridStaysWithinItsRanges() throws Exception {
+    CompRequest req = parse("APPROX_MIN[4096]_GRID;x0:-1:0.000000000001:1,x1:2:0.000000000001:3;(x0*x1)");
+    List<Number> estimate = Sampler.estimate(req, 4096, 10_000);
+    assertEquals(4096, estimate.get(2));
+    assertTrue(estimate.getFirst().doubleValue() >= -3 && estimate.getFirst().doubleValue() < -2.9, estimate.toString());
+  }
+
+  @Test
+  void averageOfAHugeGridIsWithinItsBound() throws Exception {
+    CompRequest req = parse("APPROX_AVG[4096]_GRID;x0:0:0.000000000001:1,x1:0:0.000000000001:2;(x0+x1)");
+    List<Number> estimate = Sampler.estimate(req, 4096, 10_000);
+    assertEquals(1.5, estimate.getFirst().doubleValue(), estimate.get(1).doubleValue());
+  }
+
+}
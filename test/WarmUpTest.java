@@ -0,0 +1,49 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WarmUpTest {
+
+  @TempDir
+  Path dir;
+
+  @Test
+  @Timeout(30)
+  void workloadIsServedOverBothProtocols() throws Exception {
+    // the undeclared variable cannot be encoded, it is only sent as text
+    WarmUp warmUp = new WarmUp(List.of("MAX_GRID;x0:0:1:3;(x0*2)", "MAX_GRID;x0:0:1:3;y0", "STREAM;AVG_GRID;x0:0:1:3;x0", "STAT_REQS"));
+    WarmUp.Report report = warmUp.run(500);
+    assertTrue(report.rounds() >= 1);
+    assertTrue(report.requests() >= 7, report.requests() + " requests");
+    // one failure every 7 requests, give or take the last pass over the workload cut short by the budget
+    assertEquals(report.requests() / 7, report.failures(), 1);
+    assertTrue(report.elapsedMillis() >= 500, report.elapsedMillis() + " ms");
+    assertTrue(report.lastRoundMicrosPerRequest() > 0);
+  }
+
+  @Test
+  @Timeout(30)
+  void builtinWorkloadRunsWithinItsBudget() throws Exception {
+    WarmUp.Report report = WarmUp.builtin().run(1000);
+    assertTrue(report.requests() > 0);
+    // the malformed requests of the workload
+    assertTrue(report.failures() > 0 && report.failures() < report.requests(), report.failures() + " failures");
+    assertTrue(report.elapsedMillis() < 10_000, report.elapsedMillis() + " ms");
+  }
+
+  @Test
+  void workloadFileSkipsBlankLinesAndBye() throws Exception {
+    Path file = dir.resolve("workload");
+    Files.write(file, List.of("STAT_REQS", "", "  BYE  ", "MAX_GRID;x0:0:1:3;x0"));
+    WarmUp.Report report = WarmUp.fromFile(file).run(100);
+    assertEquals(0, report.failures());
+    assertTrue(report.requests() >= 2);
+  }
+
+}
@@ -0,0 +1,73 @@
+package parsers.expression;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static parsers.expression.Monotonicity.Direction.*;
+
+class MonotonicityTest {
+
+    private static Map<String, Monotonicity.Direction> directions(String expression, Map<String, double[]> ranges) {
+        return Monotonicity.of(new ExpressionParser(expression).parse(), ranges);
+    }
+
+    private static double[] range(double start, double end) {
+        return new double[]{start, end};
+    }
+
+    @Test
+    void powerOfAVariableFollowsTheSignOfTheBase() {
+        assertEquals(Map.of("x0", INCREASING), directions("(x0^2)", Map.of("x0", range(1, 3))));
+        assertEquals(Map.of("x0", DECREASING), directions("(x0^2)", Map.of("x0", range(-3, -1))));
+        assertEquals(Map.of("x0", NONE), directions("(x0^2)", Map.of("x0", range(-1, 2))));
+        assertEquals(Map.of("x0", INCREASING), directions("(x0^3)", Map.of("x0", range(-2, -1))));
+        assertEquals(Map.of("x0", DECREASING), directions("(x0^(0-1))", Map.of("x0", range(1, 2))));
+        assertEquals(Map.of(), directions("(x0^0)", Map.of("x0", range(-2, 2))));
+    }
+
+    @Test
+    void powerThatMayNotBeFiniteIsNotAnalyzed() {
+        assertNull(directions("(x0^(0-1))", Map.of("x0", range(-1, 1))));
+        assertNull(directions("(x0^0.5)", Map.of("x0", range(-1, 1))));
+        assertNull(directions("(x0^x1)", Map.of("x0", range(-1, 1), "x1", range(1, 2))));
+        // a tiny negative x0 cubed underflows to -0.0
+        assertNull(directions("(x0^3)", Map.of("x0", range(-2, 2))));
+    }
+
+    @Test
+    void powerWithAVariableExponent() {
+        assertEquals(Map.of("x0", INCREASING), directions("(2^x0)", Map.of("x0", range(-3, 3))));
+        assertEquals(Map.of("x0", DECREASING), directions("(0.5^x0)", Map.of("x0", range(-3, 3))));
+        assertEquals(Map.of("x0", INCREASING, "x1", INCREASING), directions("(x0^x1)", Map.of("x0", range(2, 3), "x1", range(1, 2))));
+        assertEquals(Map.of("x0", DECREASING, "x1", NONE), directions("(x0^x1)", Map.of("x0", range(0.5, 3), "x1", range(-2, -1))));
+    }
+
+    @Test
+    void productGoesTheWayOfTheSignOfTheOtherOperand() {
+        assertEquals(Map.of("x0", DECREASING, "x1", INCREASING), directions("(x0*x1)", Map.of("x0", range(1, 2), "x1", range(-3, -1))));
+        assertEquals(Map.of("x0", INCREASING, "x1", DECREASING), directions("(x0*x1)", Map.of("x0", range(-2, -1), "x1", range(1, 3))));
+        assertEquals(Map.of("x0", INCREASING, "x1", NONE), directions("((x0*x1)+10)", Map.of("x0", range(-1, 2), "x1", range(1, 3))));
+        assertEquals(Map.of("x0", DECREASING), directions("(x0/(0-2))", Map.of("x0", range(1, 2))));
+    }
+
+    @Test
+    void negativeZeroIsNotAnalyzed() {
+        assertNull(directions("x0", Map.of("x0", range(-0.0, 1))));
+        // 0 * -2 and 0 / -2 are -0.0
+        assertNull(directions("(x0*x1)", Map.of("x0", range(0, 1), "x1", range(-2, -1))));
+        assertNull(directions("(x0/x1)", Map.of("x0", range(0, 1), "x1", range(-2, -1))));
+        assertNull(directions("(x0*x1)", Map.of("x0", range(-1, 2), "x1", range(1, 3))));
+        assertNull(directions("(x0/(0-2))", Map.of("x0", range(-1, 2))));
+        // -0.0 + 0.0 and 0.0 - 0.0 are 0.0
+        assertEquals(Map.of("x0", INCREASING, "x1", INCREASING), directions("(x0+x1)", Map.of("x0", range(-0.0, 1), "x1", range(0, 1))));
+        assertEquals(Map.of("x0", INCREASING, "x1", DECREASING), directions("(x0-x1)", Map.of("x0", range(0, 1), "x1", range(0, 1))));
+    }
+
+    @Test
+    void undeclaredVariableIsNotAnalyzed() {
+        assertNull(directions("(x0+x1)", Map.of("x0", range(0, 1))));
+    }
+
+}
@@ -0,0 +1,96 @@
+package parsers.expression;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PolynomialTest {
+
+    private static final Map<String, List<Double>> VALUES = Map.of(
+            "x0", List.of(-1.5, -0.5, 0.0, 0.5, 1.0, 2.5),
+            "x1", List.of(-3.0, 0.25, 1.0, 7.0),
+            "x2", List.of(0.1, 0.2, 0.3)
+    );
+
+    private static Node parse(String expression) {
+        return new ExpressionParser(expression).parse();
+    }
+
+    // the mean of the expression over every tuple of the cartesian product of VALUES
+    private static double enumeratedMean(Node root) {
+        List<Map<String, Double>> tuples = new ArrayList<>(List.of(Map.of()));
+        for (Map.Entry<String, List<Double>> variable : VALUES.entrySet()) {
+            List<Map<String, Double>> extended = new ArrayList<>();
+            for (Map<String, Double> tuple : tuples) {
+                for (double value : variable.getValue()) {
+                    Map<String, Double> t = new HashMap<>(tuple);
+                    t.put(variable.getKey(), value);
+                    extended.add(t);
+                }
+            }
+            tuples = extended;
+        }
+        double sum = 0;
+        for (Map<String, Double> tuple : tuples) {
+            sum += new Expression(root).toRealVariableVectorFunction().apply(tuple);
+        }
+        return sum / tuples.size();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "x0",
+            "3.5",
+            "((x0*x1)^2)",
+            "(((x0+1)*(x1-2))^3)",
+            "((x0^2)/3)",
+            "(((x0*x1)-(x2/0.5))/(2^3))",
+            "(((x0-x1)*(x0+x1))+((x2^0)*7))",
+            "((((x0+x1)+x2)^4)-(x1^5))"
+    })
+    void closedFormMatchesTheEnumeration(String expression) {
+        Node root = parse(expression);
+        double expected = enumeratedMean(root);
+        Double mean = Polynomial.of(root).meanOverGrid(VALUES);
+        assertNotNull(mean, expression);
+        assertEquals(expected, mean, 1e-12 * Math.max(1, Math.abs(expected)), expression);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "(x0/x1)",
+            "(x0^x1)",
+            "(x0^0.5)",
+            "(x0^(0-1))",
+            "(x0/0)",
+            "(x0/(x1-x1))"
+    })
+    void otherExpressionsAreNotPolynomials(String expression) {
+        assertNull(Polynomial.of(parse(expression)), expression);
+    }
+
+    @Test
+    void termsThatCancelOutAreNotTrusted() {
+        Map<String, List<Double>> values = Map.of("x0", List.of(999.0, 1000.0, 1001.0), "x1", List.of(999.0, 1000.0, 1001.0));
+        // the means of x0^2 and x1^2 are the same, the mean of the difference is 1e-9 against terms of about 1e6
+        assertNull(Polynomial.of(parse("(((x0*x0)-(x1*x1))+0.000000001)")).meanOverGrid(values));
+        assertNull(Polynomial.of(parse("((x0*x0)-(x1*x1))")).meanOverGrid(values));
+        // cancelling fewer bits than allowed
+        Double mean = Polynomial.of(parse("(((x0*x0)-(x1*x1))+1)")).meanOverGrid(values);
+        assertNotNull(mean);
+        assertEquals(1, mean, 1e-9);
+    }
+
+    @Test
+    void meanThatOverflowsIsNotTrusted() {
+        assertNull(Polynomial.of(parse("(x0^200)")).meanOverGrid(Map.of("x0", List.of(1e300, 2.0))));
+    }
+
+}
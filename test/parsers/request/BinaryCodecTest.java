@@ -0,0 +1,191 @@
+package parsers.request;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import parsers.expression.Expression;
+import parsers.expression.Node;
+import parsers.expression.Operator;
+import parsers.expression.Variable;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryCodecTest {
+
+  private static TokenizedRequest parse(String request) throws MalformedRequestException {
+    return new RequestParser(new Request(request)).parse();
+  }
+
+  private static byte[] encode(TokenizedRequest request) {
+    ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+    BinaryCodec.encodeRequest(request, buf);
+    return Arrays.copyOf(buf.array(), buf.position());
+  }
+
+  private static TokenizedRequest decode(byte[] frame) throws MalformedRequestException {
+    ByteBuffer buf = ByteBuffer.wrap(frame);
+    assertEquals(frame.length - Integer.BYTES, buf.getInt(), "length prefix");
+    return BinaryCodec.decodeRequest(buf);
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {
+          "BYE",
+          "STAT_REQS",
+          "STAT_MAX_TIME",
+          "MAX_GRID;x0:-1:0.1:1,x1:0:1:10;((x0*x1)^2);(x1/3.5)",
+          "MIN_LIST;x0:0:1:5,y1:1:1:6;(x0-y1)",
+          "MULTI[MIN,AVG,ARGMAX]_GRID;x0:0:1:3;x0",
+          "APPROX_AVG[512]_GRID;x0:0:1:3;(x0+1)",
+          "COUNT_GRID;x0:0:1:3;x0",
+          "BATCH;MAX_GRID;x0:0:1:3;x0|AVG_LIST;x0:0:1:3;(x0*2)",
+          "STREAM;AVG_GRID;x0:0:1:3;x0"
+  })
+  void encodingIsStableAcrossARoundTrip(String text) throws MalformedRequestException {
+    TokenizedRequest request = parse(text);
+    byte[] frame = encode(request);
+    TokenizedRequest decoded = decode(frame);
+    assertEquals(request.type(), decoded.type());
+    assertArrayEquals(frame, encode(decoded));
+  }
+
+  @Test
+  void computationRequestKeepsItsFields() throws MalformedRequestException {
+    CompRequest request = (CompRequest) parse("APPROX_MIN[100]_GRID;x0:-1:0.5:1,x1:0:1:10;((x0*x1)^2);(x1/3)");
+    CompRequest decoded = (CompRequest) decode(encode(request));
+    assertEquals(request.kind(), decoded.kind());
+    assertEquals(request.valuesKind(), decoded.valuesKind());
+    assertEquals(request.variableValues(), decoded.variableValues());
+    assertEquals(request.sampleBudget(), decoded.sampleBudget());
+    assertEquals(request.expressions().size(), decoded.expressions().size());
+  }
+
+  @Test
+  void truncatedFrameIsMalformed() throws MalformedRequestException {
+    byte[] frame = encode(parse("MAX_GRID;x0:0:1:3;(x0+1)"));
+    ByteBuffer truncated = ByteBuffer.wrap(frame, Integer.BYTES, frame.length - Integer.BYTES - 1).slice();
+    MalformedRequestException e = assertThrows(MalformedRequestException.class, () -> BinaryCodec.decodeRequest(truncated));
+    assertEquals("Truncated request frame", e.getMessage());
+  }
+
+  @Test
+  void trailingBytesAreMalformed() throws MalformedRequestException {
+    byte[] frame = encode(parse("STAT_REQS"));
+    ByteBuffer padded = ByteBuffer.allocate(frame.length + 1).put(frame).put((byte) 0).flip().position(Integer.BYTES);
+    assertThrows(MalformedRequestException.class, () -> BinaryCodec.decodeRequest(padded));
+  }
+
+  @Test
+  void unknownCodesAreMalformed() {
+    assertThrows(MalformedRequestException.class, () -> BinaryCodec.decodeRequest(ByteBuffer.wrap(new byte[]{42})));
+    assertThrows(MalformedRequestException.class, () -> BinaryCodec.decodeRequest(ByteBuffer.wrap(new byte[]{BinaryCodec.STAT, 100})));
+  }
+
+  @Test
+  void countsThatDoNotFitAreNotEncoded() throws MalformedRequestException {
+    StringBuilder request = new StringBuilder("MAX_GRID;x0:0:1:3");
+    for (int i = 0; i < 256; i++) {
+      request.append(";(x0*").append(i).append(')');
+    }
+    IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> encode(parse(request.toString())));
+    assertEquals("Too many expressions to encode", e.getMessage());
+  }
+
+  // MIN_GRID;x0:0:1:1;(((x0+x0)+x0)+...) with as many operators as fit in the node count, in prefix order
+  @Test
+  void deeplyNestedExpressionIsMalformed() {
+    int numOfOperators = 0x7FFF;
+    ByteBuffer buf = ByteBuffer.allocate(1 << 18);
+    buf.put(BinaryCodec.COMP).put((byte) CompRequest.ComputationKind.MIN.ordinal()).put((byte) CompRequest.ValuesKind.GRID.ordinal());
+    buf.put((byte) 1).put((byte) 2).put((byte) 'x').put((byte) '0').putDouble(0).putDouble(1).putDouble(1);
+    buf.put((byte) 1).putShort((short) (2 * numOfOperators + 1));
+    for (int i = 0; i < numOfOperators; i++) {
+      buf.put((byte) 2).put((byte) Operator.Type.SUM.ordinal());
+    }
+    for (int i = 0; i <= numOfOperators; i++) {
+      buf.put((byte) 1).put((byte) 0);
+    }
+    buf.flip();
+    MalformedRequestException e = assertThrows(MalformedRequestException.class, () -> BinaryCodec.decodeRequest(buf));
+    assertEquals("Expression nested too deeply", e.getMessage());
+  }
+
+  @Test
+  void deeplyNestedExpressionIsNotEncoded() throws MalformedRequestException {
+    CompRequest request = (CompRequest) parse("MIN_GRID;x0:0:1:1;x0");
+    Node root = new Variable("x0");
+    for (int i = 0; i <= BinaryCodec.MAX_EXPRESSION_DEPTH; i++) {
+      root = new Operator(Operator.Type.SUM, List.of(root, new Variable("x0")));
+    }
+    CompRequest deep = request.withExpressions(List.of(new Expression(root)));
+    IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> encode(deep));
+    assertEquals("Expression nested too deeply to encode", e.getMessage());
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {
+          "MAX_GRID;x0:-1:0.5:1,x1:0:1:10;((x0*x1)^2);(x1/3.5)",
+          "MULTI[MIN,ARGMAX]_LIST;x0:0:1:3;x0",
+          "APPROX_AVG[512]_GRID;x0:0:1:3;(x0+1)",
+          "BATCH;MAX_GRID;x0:0:1:3;x0|AVG_LIST;x0:0:1:3;(x0*2)",
+          "STREAM;AVG_GRID;x0:0:1:3;x0"
+  })
+  void decodedRequestReadsAsItsText(String text) throws MalformedRequestException {
+    byte[] frame = encode(parse(text));
+    TokenizedRequest decoded = decode(frame);
+    assertArrayEquals(frame, encode(parse(decoded.toString())), decoded.toString());
+  }
+
+  @Test
+  void decodedRequestIsSpelledOut() throws MalformedRequestException {
+    assertEquals("MIN_GRID;x0:0.0:0.5:2.0,y1:1.0:1.0:3.0;((x0 * y1) - 2.0)", decode(encode(parse("MIN_GRID;x0:0:0.5:2,y1:1:1:3;((x0*y1)-2)"))).toString());
+  }
+
+  @Test
+  void okResponseWithTooManyResultsIsNotEncoded() {
+    List<Double> results = Collections.nCopies(0x10000, 1.0);
+    ByteBuffer buf = ByteBuffer.allocate(BinaryCodec.okResponseLength(results.size()));
+    IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> BinaryCodec.encodeOkResponse(buf, 0, results));
+    assertEquals("Too many results to encode", e.getMessage());
+  }
+
+  @Test
+  void okResponseHasTheAnnouncedLength() {
+    ByteBuffer buf = ByteBuffer.allocate(BinaryCodec.okResponseLength(3));
+    BinaryCodec.encodeOkResponse(buf, 0.5, List.of(1.0, 2L, 3.5));
+    assertFalse(buf.hasRemaining());
+    buf.flip();
+    assertEquals(buf.limit() - Integer.BYTES, buf.getInt());
+    assertEquals(BinaryCodec.OK, buf.get());
+    assertEquals(0.5, buf.getDouble());
+    assertEquals(3, buf.getShort());
+    assertEquals(2.0, buf.getDouble(buf.position() + Double.BYTES));
+  }
+
+  @Test
+  void progressFrameListsTheRunningAggregates() {
+    ByteBuffer buf = ByteBuffer.allocate(64);
+    BinaryCodec.encodeProgressResponse(buf, 0.25, -1, 3, 0.5, 1.5);
+    buf.flip();
+    assertEquals(buf.limit() - Integer.BYTES, buf.getInt());
+    assertEquals(BinaryCodec.PROGRESS, buf.get());
+    for (double expected : new double[]{0.25, -1, 3, 0.5, 1.5}) {
+      assertEquals(expected, buf.getDouble());
+    }
+    assertFalse(buf.hasRemaining());
+  }
+
+  @Test
+  void streamWrapsTheComputationRequest() throws MalformedRequestException {
+    StreamRequest request = (StreamRequest) parse("STREAM;MAX_GRID;x0:0:1:3;(x0+1)");
+    ByteBuffer buf = ByteBuffer.allocate(1 << 10);
+    BinaryCodec.encodeStreamRequest(request.request(), buf);
+    assertArrayEquals(encode(request), Arrays.copyOf(buf.array(), buf.position()));
+  }
+
+}
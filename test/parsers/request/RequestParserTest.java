@@ -0,0 +1,38 @@
+package parsers.request;
+
+import org.junit.jupiter.api.Test;
+import parsers.expression.Constant;
+import parsers.expression.Node;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestParserTest {
+
+  private static final List<Node> PREPARED = List.of(new Constant(1), new Constant(2));
+
+  private static TokenizedRequest parse(String request) throws MalformedRequestException {
+    return new RequestParser(new Request(request), (handle, global) -> handle == 1 && global ? PREPARED : null).parse();
+  }
+
+  @Test
+  void releasedHandleIsTrimmed() throws MalformedRequestException {
+    ReleaseRequest request = (ReleaseRequest) parse("RELEASE; @@1 ");
+    assertEquals(1, request.handle());
+    assertTrue(request.global());
+  }
+
+  @Test
+  void handleInAComputationIsTrimmed() throws MalformedRequestException {
+    CompRequest request = (CompRequest) parse("MAX_GRID;x0:0:1:3;(x0+1); @@1 ");
+    assertEquals(3, request.expressions().size());
+  }
+
+  @Test
+  void unknownHandleIsMalformed() {
+    MalformedRequestException e = assertThrows(MalformedRequestException.class, () -> parse("MAX_GRID;x0:0:1:3; @2"));
+    assertEquals("Unknown handle @2", e.getMessage());
+  }
+
+}
@@ -0,0 +1,83 @@
+package tools;
+
+// Log-linear histogram of non negative values: exact below 256, then 128 buckets per power of two, which keeps the
+// error under 1% whatever the magnitude. Not thread safe, every thread records its own and they are merged at the end.
+class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 7;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+
+  private final long[] counts = new long[LINEAR_LIMIT + (64 - SUB_BUCKET_BITS) * SUB_BUCKETS];
+  private long totalCount = 0;
+  private long max = 0;
+
+  void record(long value) {
+    value = Math.max(0, value);
+    counts[indexOf(value)]++;
+    totalCount++;
+    max = Math.max(max, value);
+  }
+
+  // records value together with the samples a client that is not stalled would have taken every expectedInterval
+  // while waiting for it, the same correction of the coordinated omission as HdrHistogram's
+  void recordCorrected(long value, long expectedInterval) {
+    record(value);
+    if (expectedInterval <= 0) {
+      return;
+    }
+    for (long missing = value - expectedInterval; missing >= expectedInterval; missing -= expectedInterval) {
+      record(missing);
+    }
+  }
+
+  void add(LatencyHistogram other) {
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] += other.counts[i];
+    }
+    totalCount += other.totalCount;
+    max = Math.max(max, other.max);
+  }
+
+  long totalCount() {
+    return totalCount;
+  }
+
+  long max() {
+    return max;
+  }
+
+  // the smallest recorded value such that a fraction p of the values is less or equal, as the middle of its bucket
+  long percentile(double p) {
+    if (totalCount == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(p * totalCount));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(max, middleOf(i));
+      }
+    }
+    return max;
+  }
+
+  private static int indexOf(long value) {
+    if (value < LINEAR_LIMIT) {
+      return (int) value;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+  }
+
+  private static long middleOf(int index) {
+    if (index < LINEAR_LIMIT) {
+      return index;
+    }
+    int shift = (index - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+    long subBucket = (index - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+    return (subBucket << shift) + (1L << (shift - 1));
+  }
+
+}
@@ -0,0 +1,305 @@
+package tools;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Drives a running Server over the text protocol with many connections and reports throughput, latency percentiles
+// and the responses not matching the expected ones.
+//
+// closed: every connection sends its next request as soon as it gets the previous response. With -rate the
+//         connections are paced, and a request that should have been sent while waiting for a slow response is
+//         accounted for as in HdrHistogram's coordinated omission correction.
+// open  : every connection sends at a fixed rate, pipelining its requests whatever the server's pace; the latency
+//         is measured from the time the request was due, so stalls of the server are never hidden.
+public class LoadGenerator {
+
+  private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999, 0.9999};
+
+  private final String host;
+  private final int port;
+  private final int numOfConnections;
+  private final boolean openLoop;
+  private final double rate;
+  private final long warmupNanos;
+  private final long durationNanos;
+  private final RequestMix mix;
+
+  private final AtomicLong oks = new AtomicLong();
+  private final AtomicLong errs = new AtomicLong();
+  private final AtomicLong mismatches = new AtomicLong();
+  private final AtomicLong failedConnections = new AtomicLong();
+  private final ConcurrentLinkedQueue<String> mismatchSamples = new ConcurrentLinkedQueue<>();
+  // the latencies of all the connections, once run has returned
+  final LatencyHistogram corrected = new LatencyHistogram();
+  final LatencyHistogram uncorrected = new LatencyHistogram();
+
+  LoadGenerator(String host, int port, int numOfConnections, boolean openLoop, double rate, long warmupNanos, long durationNanos, RequestMix mix) {
+    this.host = host;
+    this.port = port;
+    this.numOfConnections = numOfConnections;
+    this.openLoop = openLoop;
+    this.rate = rate;
+    this.warmupNanos = warmupNanos;
+    this.durationNanos = durationNanos;
+    this.mix = mix;
+  }
+
+  public static void main(String... args) throws Exception {
+
+    Map<String, String> options = new HashMap<>(Map.of(
+            "host", "localhost",
+            "connections", "16",
+            "mode", "closed",
+            "rate", "0",
+            "warmup", "5",
+            "duration", "30"
+    ));
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      if (!args[i].startsWith("-")) {
+        usage();
+      }
+      options.put(args[i].substring(1), args[i + 1]);
+    }
+    if (args.length % 2 != 0 || !options.containsKey("port")) {
+      usage();
+    }
+
+    boolean openLoop = switch (options.get("mode")) {
+      case "open" -> true;
+      case "closed" -> false;
+      default -> {
+        usage();
+        yield false;
+      }
+    };
+    double rate = Double.parseDouble(options.get("rate"));
+    if (openLoop && rate <= 0) {
+      System.err.println("The open loop mode needs a -rate");
+      usage();
+    }
+
+    LoadGenerator generator = new LoadGenerator(
+            options.get("host"),
+            Integer.parseInt(options.get("port")),
+            Integer.parseInt(options.get("connections")),
+            openLoop,
+            rate,
+            TimeUnit.MILLISECONDS.toNanos((long) (Double.parseDouble(options.get("warmup")) * 1000)),
+            TimeUnit.MILLISECONDS.toNanos((long) (Double.parseDouble(options.get("duration")) * 1000)),
+            options.containsKey("mix") ? RequestMix.fromFile(Path.of(options.get("mix"))) : RequestMix.defaultMix()
+    );
+
+    System.exit(generator.run() ? 0 : 1);
+
+  }
+
+  private static void usage() {
+    System.out.println("Usage: java tools.LoadGenerator -port <port> [-host <host>] [-connections <n>] [-mode closed|open]");
+    System.out.println("         [-rate <total requests per second>] [-warmup <seconds>] [-duration <seconds>] [-mix <file>]");
+    System.exit(1);
+  }
+
+  // returns false when a response did not match or a connection failed
+  boolean run() throws InterruptedException {
+
+    List<Connection> connections = new ArrayList<>();
+    long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);  // leaves the time to start all the threads
+    for (int i = 0; i < numOfConnections; i++) {
+      Connection c = new Connection(i, start);
+      connections.add(c);
+      c.start();
+    }
+
+    for (Connection c : connections) {
+      c.join();
+      corrected.add(c.corrected);
+      uncorrected.add(c.uncorrected);
+    }
+
+    double seconds = (double) durationNanos / 1e9;
+    System.out.printf("%s loop, %d connections, %.1f s measured after %.1f s of warm-up%n",
+            openLoop ? "Open" : "Closed", numOfConnections, seconds, (double) warmupNanos / 1e9);
+    if (rate > 0) {
+      System.out.printf("Target rate     : %.1f req/s%n", rate);
+    }
+    System.out.printf("Throughput      : %.1f req/s%n", (double) uncorrected.totalCount() / seconds);
+    System.out.printf("Responses       : %d OK, %d ERR%n", oks.get(), errs.get());
+    System.out.printf("Mismatches      : %d%n", mismatches.get());
+    for (String sample : mismatchSamples) {
+      System.out.println("  " + sample);
+    }
+    if (failedConnections.get() > 0) {
+      System.out.printf("Failed conns    : %d%n", failedConnections.get());
+    }
+    System.out.println();
+    System.out.println("Latency (ms)      corrected  uncorrected");
+    for (double p : PERCENTILES) {
+      System.out.printf("  p%-8s %15.3f %12.3f%n", p * 100, corrected.percentile(p) / 1e6, uncorrected.percentile(p) / 1e6);
+    }
+    System.out.printf("  %-9s %15.3f %12.3f%n", "max", corrected.max() / 1e6, uncorrected.max() / 1e6);
+
+    return mismatches.get() == 0 && failedConnections.get() == 0;
+  }
+
+  private void check(RequestMix.Entry entry, String response) {
+    if (response != null && response.startsWith("OK;")) {
+      oks.incrementAndGet();
+    } else {
+      errs.incrementAndGet();
+    }
+    if (!entry.matches(response)) {
+      if (mismatches.incrementAndGet() <= 10) {
+        mismatchSamples.add(entry.request() + " -> " + response + " (expected " + entry.expected() + ")");
+      }
+    }
+  }
+
+  private class Connection extends Thread {
+
+    // a request sent and waiting for its response
+    private record InFlight(RequestMix.Entry entry, long intendedStart, long actualStart) {
+    }
+
+    private final long start;
+    private final Random random;
+    private final LatencyHistogram corrected = new LatencyHistogram();
+    private final LatencyHistogram uncorrected = new LatencyHistogram();
+    // time between two requests of this connection, 0 when unpaced
+    private final long intervalNanos;
+
+    Connection(int id, long start) {
+      super("load-" + id);
+      this.start = start;
+      this.random = new Random(id);
+      this.intervalNanos = rate > 0 ? (long) (numOfConnections * 1e9 / rate) : 0;
+    }
+
+    @Override
+    public void run() {
+      try (Socket socket = new Socket(host, port)) {
+        socket.setTcpNoDelay(true);
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        OutputStream out = socket.getOutputStream();
+        if (openLoop) {
+          runOpenLoop(in, out);
+        } else {
+          runClosedLoop(in, out);
+          out.write("BYE\n".getBytes(StandardCharsets.UTF_8));
+          out.flush();
+        }
+      } catch (IOException | InterruptedException e) {
+        failedConnections.incrementAndGet();
+        System.err.println(getName() + " failed: " + e.getMessage());
+      }
+    }
+
+    private void runClosedLoop(BufferedReader in, OutputStream out) throws IOException {
+      long end = start + warmupNanos + durationNanos;
+      long intended = start;
+      waitUntil(start);
+      while (true) {
+        long now = System.nanoTime();
+        if (now >= end) {
+          break;
+        }
+        RequestMix.Entry entry = mix.next(random);
+        long sent = System.nanoTime();
+        send(out, entry);
+        String response;
+        do {
+          response = in.readLine();
+        } while (response != null && response.startsWith("PROGRESS;"));
+        long received = System.nanoTime();
+        if (intended >= start + warmupNanos) {
+          uncorrected.record(received - sent);
+          corrected.recordCorrected(received - sent, intervalNanos);
+          check(entry, response);
+        }
+        if (response == null) {
+          throw new IOException("Connection closed by the server");
+        }
+        if (intervalNanos > 0) {
+          intended += intervalNanos;
+          waitUntil(intended);
+        } else {
+          intended = received;
+        }
+      }
+    }
+
+    private void runOpenLoop(BufferedReader in, OutputStream out) throws IOException, InterruptedException {
+      long end = start + warmupNanos + durationNanos;
+      ConcurrentLinkedQueue<InFlight> inFlight = new ConcurrentLinkedQueue<>();
+
+      // the server closes the connection once it has answered everything sent before the BYE
+      Thread receiver = new Thread(() -> {
+        try {
+          while (true) {
+            String response = in.readLine();
+            long now = System.nanoTime();
+            if (response == null) {
+              if (!inFlight.isEmpty()) {
+                failedConnections.incrementAndGet();
+                System.err.println(getName() + " failed: connection closed with " + inFlight.size() + " requests unanswered");
+              }
+              return;
+            }
+            if (response.startsWith("PROGRESS;")) {
+              continue;
+            }
+            InFlight request = inFlight.poll();
+            if (request == null) {
+              continue;
+            }
+            if (request.intendedStart() >= start + warmupNanos) {
+              corrected.record(now - request.intendedStart());
+              uncorrected.record(now - request.actualStart());
+              check(request.entry(), response);
+            }
+          }
+        } catch (IOException e) {
+          failedConnections.incrementAndGet();
+        }
+      }, getName() + "-receiver");
+      receiver.start();
+
+      for (long intended = start; intended < end; intended += intervalNanos) {
+        waitUntil(intended);
+        RequestMix.Entry entry = mix.next(random);
+        inFlight.add(new InFlight(entry, intended, System.nanoTime()));
+        send(out, entry);
+      }
+      out.write("BYE\n".getBytes(StandardCharsets.UTF_8));
+      out.flush();
+      receiver.join();
+    }
+
+    private void send(OutputStream out, RequestMix.Entry entry) throws IOException {
+      out.write((entry.request() + "\n").getBytes(StandardCharsets.UTF_8));
+      out.flush();
+    }
+
+    private static void waitUntil(long nanoTime) {
+      long remaining;
+      while ((remaining = nanoTime - System.nanoTime()) > 0) {
+        LockSupport.parkNanos(remaining);
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,332 @@
+package tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Sends the requests of a capture written by a Server started with --capture to another running Server, on as many
+// connections as were captured and with the same pacing, optionally sped up, and reports the results that changed
+// and how the latency compares. The latencies compared are the response times the servers wrote in their OK
+// responses, the round trip measured by this tool, network included, is reported next to them.
+// The approximate results depend on the time they were given and the global handles on the order the clients
+// prepared them in, they are not compared; in the requests that follow, the handles of the capture are replaced by
+// the ones the target server handed out. A request using a global handle waits until the PREPARE_GLOBAL that gave it
+// has been replayed, whatever the connection it came from.
+// The format of the capture is described in TrafficRecorder.
+public class Replayer {
+
+  private static final int CAPTURE_MAGIC = 0x50435031;
+  private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+  private static final int MAX_SAMPLES = 10;
+  private static final Pattern GLOBAL_HANDLE = Pattern.compile("@@[0-9]+");
+
+  record Entry(long receivedNanos, int connectionId, long latencyNanos, String request, String response) {
+  }
+
+  // the response times of the OK responses, the one of the capture and the replayed one
+  private record Replayed(Entry entry, long capturedNanos, long latencyNanos, long roundTripNanos) {
+  }
+
+  private final String host;
+  private final int port;
+  private final double speed;
+  private final Map<Integer, List<Entry>> connections;
+
+  private final AtomicLong numOfReplayed = new AtomicLong();
+  private final AtomicLong changed = new AtomicLong();
+  private final AtomicLong failedConnections = new AtomicLong();
+  private final ConcurrentLinkedQueue<String> changedSamples = new ConcurrentLinkedQueue<>();
+  private final ConcurrentLinkedQueue<Replayed> replayed = new ConcurrentLinkedQueue<>();
+  // @@<n> of the capture to @@<n> of the replay, guarded by itself
+  private final Map<String, String> globalHandles = new HashMap<>();
+  // the @@<n> given by the PREPARE_GLOBAL of the capture
+  private final Set<String> capturedHandles = new HashSet<>();
+
+  Replayer(String host, int port, double speed, List<Entry> entries) {
+    this.host = host;
+    this.port = port;
+    this.speed = speed;
+    // the records are written when the responses are, the requests are sent in the order they were received
+    this.connections = new LinkedHashMap<>();
+    entries.stream()
+            .sorted(Comparator.comparingLong(Entry::receivedNanos))
+            .forEach(e -> connections.computeIfAbsent(e.connectionId(), k -> new ArrayList<>()).add(e));
+    entries.stream()
+            .map(Replayer::preparedHandle)
+            .filter(handle -> handle != null)
+            .forEach(capturedHandles::add);
+  }
+
+  public static void main(String... args) throws Exception {
+
+    Map<String, String> options = new HashMap<>(Map.of(
+            "host", "localhost",
+            "speed", "1"
+    ));
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      if (!args[i].startsWith("-")) {
+        usage();
+      }
+      options.put(args[i].substring(1), args[i + 1]);
+    }
+    if (args.length % 2 != 0 || !options.containsKey("port") || !options.containsKey("capture")) {
+      usage();
+    }
+
+    double speed = Double.parseDouble(options.get("speed"));
+    if (speed < 0) {
+      usage();
+    }
+
+    Replayer replayer = new Replayer(
+            options.get("host"),
+            Integer.parseInt(options.get("port")),
+            speed,
+            readCapture(Path.of(options.get("capture")))
+    );
+
+    System.exit(replayer.run() ? 0 : 1);
+
+  }
+
+  private static void usage() {
+    System.out.println("Usage: java tools.Replayer -port <port> -capture <file> [-host <host>] [-speed <factor>]");
+    System.out.println("         -speed 2 replays twice as fast as captured, -speed 0 sends every request as soon as possible");
+    System.exit(1);
+  }
+
+  // a record cut short, by a server killed while writing it, ends the capture
+  static List<Entry> readCapture(Path file) throws IOException {
+    List<Entry> entries = new ArrayList<>();
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      if (in.readInt() != CAPTURE_MAGIC) {
+        throw new IOException(file + " is not a capture");
+      }
+      in.readLong();  // the start of the capture
+      while (true) {
+        try {
+          entries.add(new Entry(in.readLong(), in.readInt(), in.readLong(), readString(in), readString(in)));
+        } catch (EOFException e) {
+          break;
+        }
+      }
+    }
+    return entries;
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  // returns false when a result changed or a connection failed
+  boolean run() throws InterruptedException {
+
+    long firstReceived = connections.values().stream().mapToLong(c -> c.getFirst().receivedNanos()).min().orElse(0);
+    long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);  // leaves the time to start all the threads
+    List<Thread> threads = new ArrayList<>();
+    for (Map.Entry<Integer, List<Entry>> c : connections.entrySet()) {
+      Thread t = new Thread(() -> replay(c.getValue(), start, firstReceived), "replay-" + c.getKey());
+      threads.add(t);
+      t.start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    double seconds = (double) (System.nanoTime() - start) / 1e9;
+
+    LatencyHistogram captured = new LatencyHistogram();
+    LatencyHistogram replay = new LatencyHistogram();
+    LatencyHistogram roundTrip = new LatencyHistogram();
+    for (Replayed r : replayed) {
+      captured.record(r.capturedNanos());
+      replay.record(r.latencyNanos());
+      roundTrip.record(r.roundTripNanos());
+    }
+
+    System.out.printf("Replayed %d requests on %d connections in %.1f s, %s%n", numOfReplayed.get(), connections.size(), seconds,
+            speed == 0 ? "as fast as possible" : speed + "x the captured pace");
+    System.out.printf("Changed results : %d%n", changed.get());
+    for (String sample : changedSamples) {
+      System.out.println("  " + sample);
+    }
+    if (failedConnections.get() > 0) {
+      System.out.printf("Failed conns    : %d%n", failedConnections.get());
+    }
+    System.out.println();
+    System.out.printf("Latency (ms) of the %d OK responses%n", replayed.size());
+    System.out.println("                captured     replayed   round trip");
+    for (double p : PERCENTILES) {
+      System.out.printf("  p%-8s %10.3f %12.3f %12.3f%n", p * 100, captured.percentile(p) / 1e6, replay.percentile(p) / 1e6, roundTrip.percentile(p) / 1e6);
+    }
+    System.out.printf("  %-9s %10.3f %12.3f %12.3f%n", "max", captured.max() / 1e6, replay.max() / 1e6, roundTrip.max() / 1e6);
+    System.out.println();
+    System.out.println("Largest slowdowns (ms)");
+    replayed.stream()
+            .sorted(Comparator.comparingLong((Replayed r) -> r.capturedNanos() - r.latencyNanos()))
+            .limit(MAX_SAMPLES)
+            .forEach(r -> System.out.printf("  %+10.3f  %.3f -> %.3f  %s%n", (r.latencyNanos() - r.capturedNanos()) / 1e6,
+                    r.capturedNanos() / 1e6, r.latencyNanos() / 1e6, r.entry().request()));
+
+    return changed.get() == 0 && failedConnections.get() == 0;
+  }
+
+  private void replay(List<Entry> entries, long start, long firstReceived) {
+    try (Socket socket = new Socket(host, port)) {
+      socket.setTcpNoDelay(true);
+      BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+      OutputStream out = socket.getOutputStream();
+      boolean closed = false;
+      for (Entry entry : entries) {
+        if (speed > 0) {
+          waitUntil(start + (long) ((entry.receivedNanos() - firstReceived) / speed));
+        }
+        String request = withReplayedHandles(entry.request());
+        long sent = System.nanoTime();
+        out.write((request + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        // BYE is the only request without a response
+        if (entry.response().isEmpty()) {
+          closed = true;
+          break;
+        }
+        String response;
+        do {
+          response = in.readLine();
+        } while (response != null && response.startsWith("PROGRESS;"));
+        long received = System.nanoTime();
+        if (response == null) {
+          throw new IOException("Connection closed by the server");
+        }
+        numOfReplayed.incrementAndGet();
+        long capturedNanos = responseTimeNanos(entry.response());
+        long latencyNanos = responseTimeNanos(response);
+        if (capturedNanos >= 0 && latencyNanos >= 0) {
+          replayed.add(new Replayed(entry, capturedNanos, latencyNanos, received - sent));
+        }
+        String capturedHandle = preparedHandle(entry);
+        if (capturedHandle != null) {
+          // a PREPARE_GLOBAL failing on the replay leaves the handle as it was, its users then report the change
+          mapHandle(capturedHandle, latencyNanos >= 0 ? withoutResponseTime(response).substring(3) : capturedHandle);
+        }
+        // the statistics describe the server the requests were sent to, they are not expected to be the same
+        if (isComparable(entry.request()) && !withoutResponseTime(response).equals(withoutResponseTime(entry.response()))) {
+          if (changed.incrementAndGet() <= MAX_SAMPLES) {
+            changedSamples.add(entry.request() + " : " + entry.response() + " -> " + response);
+          }
+        }
+      }
+      // the captured client went away without saying BYE
+      if (!closed) {
+        out.write("BYE\n".getBytes(StandardCharsets.UTF_8));
+        out.flush();
+      }
+    } catch (IOException e) {
+      failedConnections.incrementAndGet();
+      System.err.println(Thread.currentThread().getName() + " failed: " + e.getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      // the connections waiting for the handles this one did not get to prepare are not left waiting
+      for (Entry entry : entries) {
+        String capturedHandle = preparedHandle(entry);
+        if (capturedHandle != null) {
+          mapHandle(capturedHandle, capturedHandle);
+        }
+      }
+    }
+  }
+
+  // the handle the PREPARE_GLOBAL of entry got in the capture, null for any other entry
+  private static String preparedHandle(Entry entry) {
+    if (!entry.request().startsWith("PREPARE_GLOBAL;") || responseTimeNanos(entry.response()) < 0) {
+      return null;
+    }
+    return withoutResponseTime(entry.response()).substring(3);
+  }
+
+  // the first mapping of a handle is kept
+  private void mapHandle(String capturedHandle, String replayedHandle) {
+    synchronized (globalHandles) {
+      if (globalHandles.putIfAbsent(capturedHandle, replayedHandle) == null) {
+        globalHandles.notifyAll();
+      }
+    }
+  }
+
+  // the statistics describe the server they come from, the approximate results depend on the time they were given
+  // and the global handles on the order the clients prepared them in, none of them are expected to be the same
+  private static boolean isComparable(String request) {
+    return !request.startsWith("STAT_") && !request.contains("APPROX_") && !request.startsWith("PREPARE_GLOBAL;");
+  }
+
+  // the global handles of the capture replaced by the ones the replayed server gave, once it has given them all.
+  // A handle that no PREPARE_GLOBAL of the capture gave is left as it is
+  private String withReplayedHandles(String request) throws InterruptedException {
+    if (!request.contains("@@")) {
+      return request;
+    }
+    synchronized (globalHandles) {
+      Matcher matcher = GLOBAL_HANDLE.matcher(request);
+      while (matcher.find()) {
+        while (capturedHandles.contains(matcher.group()) && !globalHandles.containsKey(matcher.group())) {
+          globalHandles.wait();
+        }
+      }
+      return GLOBAL_HANDLE.matcher(request).replaceAll(m -> Matcher.quoteReplacement(globalHandles.getOrDefault(m.group(), m.group())));
+    }
+  }
+
+  // the response time of OK;<response time>;<result> in nanoseconds, -1 for any other response
+  private static long responseTimeNanos(String response) {
+    int end = response.indexOf(';', 3);
+    if (!response.startsWith("OK;") || end < 0) {
+      return -1;
+    }
+    try {
+      return Math.round(Double.parseDouble(response.substring(3, end)) * 1e9);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  // OK;<response time>;<result> differ in the time even when the results are the same
+  private static String withoutResponseTime(String response) {
+    if (!response.startsWith("OK;")) {
+      return response;
+    }
+    int end = response.indexOf(';', 3);
+    return end < 0 ? response : "OK;" + response.substring(end + 1);
+  }
+
+  private static void waitUntil(long nanoTime) {
+    long remaining;
+    while ((remaining = nanoTime - System.nanoTime()) > 0) {
+      LockSupport.parkNanos(remaining);
+    }
+  }
+
+}
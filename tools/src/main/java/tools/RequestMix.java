@@ -0,0 +1,103 @@
+package tools;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Weighted set of requests to draw from, each with the response it is expected to get.
+// A mix file has one entry per line, fields separated by tabs, blank lines and lines starting with # are skipped:
+//   <weight> <request> <expected>
+// where expected is the result field of the OK response, ERR when an error is expected, or * to accept any OK
+class RequestMix {
+
+  static final String ANY = "*";
+  static final String ERR = "ERR";
+
+  record Entry(int weight, String request, String expected) {
+
+    // the response is OK;<time>;<result> or ERR;<message>
+    boolean matches(String response) {
+      if (response == null) {
+        return false;
+      }
+      if (expected.equals(ERR)) {
+        return response.startsWith("ERR;");
+      }
+      if (!response.startsWith("OK;")) {
+        return false;
+      }
+      if (expected.equals(ANY)) {
+        return true;
+      }
+      String result = response.substring(response.indexOf(';', 3) + 1);
+      if (result.equals(expected)) {
+        return true;
+      }
+      try {
+        double actual = Double.parseDouble(result);
+        double wanted = Double.parseDouble(expected);
+        return Math.abs(actual - wanted) <= 1e-9 * Math.max(1, Math.abs(wanted));
+      } catch (NumberFormatException e) {
+        return false;
+      }
+    }
+  }
+
+  private final List<Entry> entries;
+  private final int totalWeight;
+
+  RequestMix(List<Entry> entries) {
+    if (entries.isEmpty()) {
+      throw new IllegalArgumentException("The request mix is empty");
+    }
+    this.entries = entries;
+    this.totalWeight = entries.stream().mapToInt(Entry::weight).sum();
+  }
+
+  Entry next(Random random) {
+    int r = random.nextInt(totalWeight);
+    for (Entry e : entries) {
+      r -= e.weight();
+      if (r < 0) {
+        return e;
+      }
+    }
+    return entries.getLast();
+  }
+
+  static RequestMix fromFile(Path file) throws IOException {
+    List<Entry> entries = new ArrayList<>();
+    for (String line : Files.readAllLines(file)) {
+      if (line.isBlank() || line.startsWith("#")) {
+        continue;
+      }
+      String[] fields = line.split("\t");
+      if (fields.length != 3) {
+        throw new IllegalArgumentException("Expected <weight> <request> <expected> separated by tabs: " + line);
+      }
+      entries.add(new Entry(Integer.parseInt(fields[0].trim()), fields[1].trim(), fields[2].trim()));
+    }
+    return new RequestMix(entries);
+  }
+
+  static RequestMix defaultMix() {
+    return new RequestMix(List.of(
+            new Entry(1, "STAT_REQS", ANY),
+            new Entry(1, "STAT_AVG_TIME", ANY),
+            new Entry(1, "STAT_MAX_TIME", ANY),
+            new Entry(4, "COUNT_GRID;x0:0:1:99,x1:0:1:9;x0", "1000"),
+            new Entry(2, "COUNT_LIST;x0:0:1:99,x1:0:1:99;x0", "100"),
+            new Entry(4, "MAX_GRID;x0:-1:0.5:1,x1:0:1:4;((x0*x0)+x1)", "5.0"),
+            new Entry(4, "MIN_LIST;x0:0:1:9,x1:10:1:19;(x1-x0)", "10.0"),
+            new Entry(4, "AVG_LIST;x0:1:1:5;(x0*2)", "6.0"),
+            new Entry(4, "AVG_GRID;x0:0:1:3,x1:0:1:3;(x0+x1)", "3.0"),
+            new Entry(2, "MIN_GRID;x0:0:0.25:1;(x0^2)", "0.0"),
+            new Entry(2, "MAX_GRID;x0:0:0.01:1,x1:0:0.01:1;((x0*x1)+1)", "2.0"),
+            new Entry(1, "MAX_GRID;x0:0:1:1;y0", ERR)
+    ));
+  }
+
+}
@@ -0,0 +1,115 @@
+package tools;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+  private static void assertWithinOnePercent(long expected, long actual) {
+    assertTrue(Math.abs((double) actual - expected) <= expected / 100.0, actual + " is not within 1% of " + expected);
+  }
+
+  @Test
+  void emptyHistogramReportsZero() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.totalCount());
+    assertEquals(0, histogram.percentile(0.99));
+    assertEquals(0, histogram.max());
+  }
+
+  @Test
+  void smallValuesAreExact() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long value = 0; value < 256; value++) {
+      histogram.record(value);
+    }
+    for (int k = 1; k <= 256; k++) {
+      assertEquals(k - 1, histogram.percentile(k / 256.0));
+    }
+    assertEquals(255, histogram.max());
+  }
+
+  @Test
+  void negativeValuesCountAsZero() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-5);
+    assertEquals(1, histogram.totalCount());
+    assertEquals(0, histogram.percentile(1));
+    assertEquals(0, histogram.max());
+  }
+
+  @Test
+  void largeValuesAreWithinOnePercent() {
+    // on both sides of every power of two, where the buckets double in width
+    for (int bits = 8; bits < 63; bits++) {
+      for (long value : new long[]{(1L << bits) - 1, 1L << bits, (1L << bits) + (1L << (bits - 1)) + 1}) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(value);
+        assertWithinOnePercent(value, histogram.percentile(1));
+        if (2 * value > 0) {
+          histogram.record(2 * value);
+          assertWithinOnePercent(value, histogram.percentile(0.5));
+          assertWithinOnePercent(2 * value, histogram.percentile(1));
+        }
+      }
+    }
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(Long.MAX_VALUE);
+    assertEquals(Long.MAX_VALUE, histogram.max());
+    assertWithinOnePercent(Long.MAX_VALUE, histogram.percentile(1));
+  }
+
+  @Test
+  void percentileIsNeverPastTheMax() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    // in the bucket of 300 and 301, whose middle is 301
+    histogram.record(300);
+    assertEquals(300, histogram.percentile(1));
+    assertEquals(300, histogram.max());
+  }
+
+  @Test
+  void percentilesFollowTheRanks() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long value = 1; value <= 10_000; value++) {
+      histogram.record(value * 1000);
+    }
+    assertWithinOnePercent(5_000_000, histogram.percentile(0.5));
+    assertWithinOnePercent(9_000_000, histogram.percentile(0.9));
+    assertWithinOnePercent(9_990_000, histogram.percentile(0.999));
+    assertEquals(10_000_000, histogram.max());
+    assertWithinOnePercent(10_000_000, histogram.percentile(1));
+  }
+
+  @Test
+  void mergedHistogramsCountEveryValue() {
+    LatencyHistogram first = new LatencyHistogram();
+    LatencyHistogram second = new LatencyHistogram();
+    for (long value = 1; value <= 100; value++) {
+      (value % 2 == 0 ? first : second).record(value);
+    }
+    first.add(second);
+    assertEquals(100, first.totalCount());
+    assertEquals(100, first.max());
+    assertEquals(50, first.percentile(0.5));
+    assertEquals(1, first.percentile(0.01));
+  }
+
+  @Test
+  void correctionAddsTheSamplesMissedWhileStalled() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.recordCorrected(100, 30);
+    // 100 and the requests due 30 and 60 later, the one due 90 later would have been sent after the response
+    assertEquals(3, histogram.totalCount());
+    assertEquals(40, histogram.percentile(1 / 3.0));
+    assertEquals(70, histogram.percentile(2 / 3.0));
+    assertEquals(100, histogram.percentile(1));
+
+    LatencyHistogram unpaced = new LatencyHistogram();
+    unpaced.recordCorrected(100, 0);
+    unpaced.recordCorrected(20, 30);
+    assertEquals(2, unpaced.totalCount());
+  }
+
+}
@@ -0,0 +1,66 @@
+package tools;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoadGeneratorTest {
+
+  // answers every request at once, except the first one which it holds for stallMillis
+  private static Thread stallingServer(ServerSocket serverSocket, long stallMillis) {
+    Thread server = new Thread(() -> {
+      try (Socket socket = serverSocket.accept()) {
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        OutputStream out = socket.getOutputStream();
+        boolean first = true;
+        for (String line = in.readLine(); line != null && !line.equals("BYE"); line = in.readLine()) {
+          if (first) {
+            Thread.sleep(stallMillis);
+            first = false;
+          }
+          out.write("OK;0.0;1\n".getBytes(StandardCharsets.UTF_8));
+          out.flush();
+        }
+      } catch (IOException | InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    });
+    server.start();
+    return server;
+  }
+
+  @Test
+  @Timeout(30)
+  void openLoopMeasuresFromTheTimeTheRequestWasDue() throws Exception {
+    try (ServerSocket serverSocket = new ServerSocket(0)) {
+      Thread server = stallingServer(serverSocket, 500);
+      // a request every 20 ms for a second, the first 25 are due while the server is stalled
+      LoadGenerator generator = new LoadGenerator("localhost", serverSocket.getLocalPort(), 1, true, 50, 0,
+              TimeUnit.SECONDS.toNanos(1), new RequestMix(List.of(new RequestMix.Entry(1, "STAT_REQS", RequestMix.ANY))));
+      assertTrue(generator.run());
+      server.join();
+
+      assertEquals(50, generator.corrected.totalCount());
+      assertEquals(50, generator.uncorrected.totalCount());
+      // every request due during the stall waited for the rest of it, not only the one the server was computing
+      assertTrue(generator.corrected.max() >= TimeUnit.MILLISECONDS.toNanos(480), generator.corrected.max() + " ns");
+      assertTrue(generator.corrected.percentile(0.7) >= TimeUnit.MILLISECONDS.toNanos(150), generator.corrected.percentile(0.7) + " ns");
+      // a request is never sent before it is due
+      for (double p : new double[]{0.5, 0.9, 0.99, 1}) {
+        assertTrue(generator.corrected.percentile(p) >= generator.uncorrected.percentile(p));
+      }
+    }
+  }
+
+}
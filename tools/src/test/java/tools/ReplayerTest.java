@@ -0,0 +1,130 @@
+package tools;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// the captures are written by servers started in JVMs of their own, the options of a server are static
+class ReplayerTest {
+
+  @TempDir
+  Path dir;
+
+  private final List<Process> servers = new ArrayList<>();
+  private final List<Socket> sockets = new ArrayList<>();
+
+  @AfterEach
+  void stopServers() throws IOException {
+    for (Socket socket : sockets) {
+      socket.close();
+    }
+    for (Process server : servers) {
+      server.destroyForcibly();
+    }
+  }
+
+  // the port of a new server
+  private int startServer(String... options) throws IOException {
+    int port;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    List<String> command = new ArrayList<>(List.of(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+            "-cp", System.getProperty("java.class.path"), "Server", Integer.toString(port), "--log-requests", "off"));
+    command.addAll(List.of(options));
+    servers.add(new ProcessBuilder(command).redirectOutput(ProcessBuilder.Redirect.DISCARD).redirectError(ProcessBuilder.Redirect.DISCARD).start());
+    return port;
+  }
+
+  // stops the server the way a signal does, so that the capture is flushed
+  private void stopServer(int index) throws InterruptedException {
+    servers.get(index).destroy();
+    servers.get(index).waitFor();
+  }
+
+  // retried until the server listens
+  private Socket connect(int port) throws IOException, InterruptedException {
+    for (int attempt = 0; ; attempt++) {
+      try {
+        Socket socket = new Socket("localhost", port);
+        socket.setSoTimeout(10_000);
+        sockets.add(socket);
+        return socket;
+      } catch (IOException e) {
+        if (attempt == 200) {
+          throw e;
+        }
+        Thread.sleep(50);
+      }
+    }
+  }
+
+  private static String exchange(Socket socket, String request) throws IOException {
+    socket.getOutputStream().write((request + "\n").getBytes(StandardCharsets.UTF_8));
+    socket.getOutputStream().flush();
+    return request.equals("BYE") ? "" : new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)).readLine();
+  }
+
+  @Test
+  @Timeout(60)
+  void captureIsReadBackAsRecorded() throws Exception {
+    Path capture = dir.resolve("capture");
+    int port = startServer("--capture", capture.toString());
+    Socket socket = connect(port);
+    List<String> requests = List.of("MAX_GRID;x0:0:1:3;(x0*2)", "MAX_GRID;x0:0:1:3;y0", "BYE");
+    List<String> responses = new ArrayList<>();
+    for (String request : requests) {
+      responses.add(exchange(socket, request));
+    }
+    stopServer(0);
+
+    List<Replayer.Entry> entries = Replayer.readCapture(capture);
+    assertEquals(requests, entries.stream().map(Replayer.Entry::request).toList());
+    assertEquals(responses, entries.stream().map(Replayer.Entry::response).toList());
+    assertTrue(responses.get(0).endsWith(";6.0"), responses.get(0));
+    assertTrue(responses.get(1).startsWith("ERR;"), responses.get(1));
+    assertEquals(1, entries.stream().map(Replayer.Entry::connectionId).distinct().count());
+    for (int i = 0; i < entries.size(); i++) {
+      assertTrue(entries.get(i).latencyNanos() >= 0);
+      assertTrue(i == 0 || entries.get(i).receivedNanos() >= entries.get(i - 1).receivedNanos());
+    }
+  }
+
+  @Test
+  @Timeout(60)
+  void globalHandlePreparedOnAnotherConnectionIsRemapped() throws Exception {
+    Path capture = dir.resolve("capture");
+    int capturePort = startServer("--capture", capture.toString());
+    Socket preparing = connect(capturePort);
+    Socket using = connect(capturePort);
+    // the preparing connection is busy before it prepares, the using one starts with the handle
+    assertTrue(exchange(preparing, "MAX_GRID;x0:0:0.00001:1,x1:0:0.01:1;(x0*x1)").startsWith("OK;"));
+    assertTrue(exchange(preparing, "PREPARE_GLOBAL;(x0*2)").endsWith(";@@1"));
+    assertTrue(exchange(using, "MAX_GRID;x0:0:1:3;@@1").endsWith(";6.0"));
+    exchange(using, "BYE");
+    exchange(preparing, "BYE");
+    stopServer(0);
+
+    // on the server replayed to, @@1 is already taken by another expression
+    int replayPort = startServer();
+    Socket other = connect(replayPort);
+    assertTrue(exchange(other, "PREPARE_GLOBAL;(x0+100)").endsWith(";@@1"));
+
+    // sent as fast as possible, the request using the handle would otherwise come first
+    assertTrue(new Replayer("localhost", replayPort, 0, Replayer.readCapture(capture)).run());
+  }
+
+}